@@ -16,13 +16,21 @@
 package com.keybox.common.db;
 
 import com.keybox.common.util.AppConfig;
+import com.keybox.manage.action.SecureShellAction;
+import com.keybox.manage.db.PrivateKeyDB;
 import com.keybox.manage.model.Auth;
+import com.keybox.manage.util.AuditRetentionUtil;
 import com.keybox.manage.util.DBUtils;
 import com.keybox.manage.util.DSPool;
 import com.keybox.manage.util.EncryptionUtil;
+import com.keybox.manage.util.KeyDistributionUtil;
 import com.keybox.manage.util.KeyStoreUtil;
 import com.keybox.manage.util.RefreshAuthKeyUtil;
 import com.keybox.manage.util.SSHUtil;
+import com.keybox.manage.util.SessionOutputUtil;
+import com.keybox.manage.util.SystemAuditLogger;
+import com.keybox.manage.util.TerminalLogWriter;
+import com.keybox.manage.util.TerminalPoolUtil;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -30,6 +38,7 @@ import javax.servlet.annotation.WebServlet;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 
 import org.apache.commons.lang.RandomStringUtils;
@@ -97,22 +106,7 @@ public class DBInitServlet extends javax.servlet.http.HttpServlet {
 				resetSSHKey = true;
 
 				//create DB objects
-				statement.executeUpdate("create table if not exists users (id INTEGER PRIMARY KEY AUTO_INCREMENT, first_nm varchar, last_nm varchar, email varchar, username varchar not null, password varchar, auth_token varchar, enabled boolean not null default true, auth_type varchar not null default '" + Auth.AUTH_BASIC+ "', user_type varchar not null default '" + Auth.ADMINISTRATOR + "', salt varchar, otp_secret varchar)");
-				statement.executeUpdate("create table if not exists user_theme (user_id INTEGER PRIMARY KEY, bg varchar(7), fg varchar(7), d1 varchar(7), d2 varchar(7), d3 varchar(7), d4 varchar(7), d5 varchar(7), d6 varchar(7), d7 varchar(7), d8 varchar(7), b1 varchar(7), b2 varchar(7), b3 varchar(7), b4 varchar(7), b5 varchar(7), b6 varchar(7), b7 varchar(7), b8 varchar(7), foreign key (user_id) references users(id) on delete cascade) ");
-				statement.executeUpdate("create table if not exists system (id INTEGER PRIMARY KEY AUTO_INCREMENT, display_nm varchar not null, user varchar not null, host varchar not null, port INTEGER not null, authorized_keys varchar not null, status_cd varchar not null default 'INITIAL')");
-				statement.executeUpdate("create table if not exists profiles (id INTEGER PRIMARY KEY AUTO_INCREMENT, nm varchar not null, desc varchar not null)");
-				statement.executeUpdate("create table if not exists system_map (profile_id INTEGER, system_id INTEGER, foreign key (profile_id) references profiles(id) on delete cascade , foreign key (system_id) references system(id) on delete cascade, primary key (profile_id, system_id))");
-				statement.executeUpdate("create table if not exists user_map (user_id INTEGER, profile_id INTEGER, foreign key (user_id) references users(id) on delete cascade, foreign key (profile_id) references profiles(id) on delete cascade, primary key (user_id, profile_id))");
-				statement.executeUpdate("create table if not exists application_key (id INTEGER PRIMARY KEY AUTO_INCREMENT, public_key varchar not null, private_key varchar not null, passphrase varchar)");
-
-				statement.executeUpdate("create table if not exists status (id INTEGER, user_id INTEGER, status_cd varchar not null default 'INITIAL', foreign key (id) references system(id) on delete cascade, foreign key (user_id) references users(id) on delete cascade, primary key(id, user_id))");
-				statement.executeUpdate("create table if not exists scripts (id INTEGER PRIMARY KEY AUTO_INCREMENT, user_id INTEGER, display_nm varchar not null, script varchar not null, foreign key (user_id) references users(id) on delete cascade)");
-
-
-				statement.executeUpdate("create table if not exists public_keys (id INTEGER PRIMARY KEY AUTO_INCREMENT, key_nm varchar not null, type varchar, fingerprint varchar, public_key varchar, enabled boolean not null default true, create_dt timestamp not null default CURRENT_TIMESTAMP(),  user_id INTEGER, profile_id INTEGER, foreign key (profile_id) references profiles(id) on delete cascade, foreign key (user_id) references users(id) on delete cascade)");
-
-				statement.executeUpdate("create table if not exists session_log (id BIGINT PRIMARY KEY AUTO_INCREMENT, user_id INTEGER, session_tm timestamp default CURRENT_TIMESTAMP, foreign key (user_id) references users(id) on delete cascade )");
-				statement.executeUpdate("create table if not exists terminal_log (session_id BIGINT, instance_id INTEGER, system_id INTEGER, output varchar not null, log_tm timestamp default CURRENT_TIMESTAMP, foreign key (session_id) references session_log(id) on delete cascade, foreign key (system_id) references system(id) on delete cascade)");
+				createSchema(connection);
 
 				//insert default admin user
 				String salt = EncryptionUtil.generateSalt();
@@ -127,6 +121,9 @@ public class DBInitServlet extends javax.servlet.http.HttpServlet {
 			}
 			DBUtils.closeRs(rs);
 
+			//apply schema changes made since the database was created
+			SchemaMigrationRunner.migrate(connection);
+
 			//if reset ssh application key then generate new key
 			if (resetSSHKey) {
 
@@ -150,6 +147,8 @@ public class DBInitServlet extends javax.servlet.http.HttpServlet {
 				pStmt.setString(3, EncryptionUtil.encrypt(passphrase));
 				pStmt.execute();
 				DBUtils.closeStmt(pStmt);
+				//drop the cached key and identity parsed from the old key
+				PrivateKeyDB.invalidateApplicationKey();
 
 				System.out.println("KeyBox Generated Global Public Key:");
 				System.out.println(publicKey);
@@ -178,6 +177,59 @@ public class DBInitServlet extends javax.servlet.http.HttpServlet {
 
 
 		RefreshAuthKeyUtil.startRefreshAllSystemsTimerTask();
+		AuditRetentionUtil.start();
+
+		if (SessionOutputUtil.enableInternalAudit) {
+			TerminalLogWriter.start();
+		}
+		SystemAuditLogger.start();
+	}
+
+	/**
+	 * closes open terminals and drains the terminal pools on shutdown
+	 */
+	@Override
+	public void destroy() {
+
+		SSHUtil.disconnectAllTerms(SecureShellAction.getUserSchSessionMap());
+		TerminalPoolUtil.shutdown();
+		RefreshAuthKeyUtil.shutdown();
+		KeyDistributionUtil.shutdown();
+		TerminalLogWriter.shutdown();
+		SystemAuditLogger.shutdown();
+		AuditRetentionUtil.shutdown();
+
+		super.destroy();
 	}
 
+	/**
+	 * creates the tables of a new database, changes made since are applied by the schema migrations
+	 *
+	 * @param connection DB connection
+	 * @throws SQLException
+	 */
+	public static void createSchema(Connection connection) throws SQLException {
+
+		Statement statement = connection.createStatement();
+		try {
+			statement.executeUpdate("create table if not exists users (id INTEGER PRIMARY KEY AUTO_INCREMENT, first_nm varchar, last_nm varchar, email varchar, username varchar not null, password varchar, auth_token varchar, enabled boolean not null default true, auth_type varchar not null default '" + Auth.AUTH_BASIC+ "', user_type varchar not null default '" + Auth.ADMINISTRATOR + "', salt varchar, otp_secret varchar)");
+			statement.executeUpdate("create table if not exists user_theme (user_id INTEGER PRIMARY KEY, bg varchar(7), fg varchar(7), d1 varchar(7), d2 varchar(7), d3 varchar(7), d4 varchar(7), d5 varchar(7), d6 varchar(7), d7 varchar(7), d8 varchar(7), b1 varchar(7), b2 varchar(7), b3 varchar(7), b4 varchar(7), b5 varchar(7), b6 varchar(7), b7 varchar(7), b8 varchar(7), foreign key (user_id) references users(id) on delete cascade) ");
+			statement.executeUpdate("create table if not exists system (id INTEGER PRIMARY KEY AUTO_INCREMENT, display_nm varchar not null, user varchar not null, host varchar not null, port INTEGER not null, authorized_keys varchar not null, status_cd varchar not null default 'INITIAL')");
+			statement.executeUpdate("create table if not exists profiles (id INTEGER PRIMARY KEY AUTO_INCREMENT, nm varchar not null, desc varchar not null)");
+			statement.executeUpdate("create table if not exists system_map (profile_id INTEGER, system_id INTEGER, foreign key (profile_id) references profiles(id) on delete cascade , foreign key (system_id) references system(id) on delete cascade, primary key (profile_id, system_id))");
+			statement.executeUpdate("create table if not exists user_map (user_id INTEGER, profile_id INTEGER, foreign key (user_id) references users(id) on delete cascade, foreign key (profile_id) references profiles(id) on delete cascade, primary key (user_id, profile_id))");
+			statement.executeUpdate("create table if not exists application_key (id INTEGER PRIMARY KEY AUTO_INCREMENT, public_key varchar not null, private_key varchar not null, passphrase varchar)");
+
+			statement.executeUpdate("create table if not exists status (id INTEGER, user_id INTEGER, status_cd varchar not null default 'INITIAL', foreign key (id) references system(id) on delete cascade, foreign key (user_id) references users(id) on delete cascade, primary key(id, user_id))");
+			statement.executeUpdate("create table if not exists scripts (id INTEGER PRIMARY KEY AUTO_INCREMENT, user_id INTEGER, display_nm varchar not null, script varchar not null, foreign key (user_id) references users(id) on delete cascade)");
+
+
+			statement.executeUpdate("create table if not exists public_keys (id INTEGER PRIMARY KEY AUTO_INCREMENT, key_nm varchar not null, type varchar, fingerprint varchar, public_key varchar, enabled boolean not null default true, create_dt timestamp not null default CURRENT_TIMESTAMP(),  user_id INTEGER, profile_id INTEGER, foreign key (profile_id) references profiles(id) on delete cascade, foreign key (user_id) references users(id) on delete cascade)");
+
+			statement.executeUpdate("create table if not exists session_log (id BIGINT PRIMARY KEY AUTO_INCREMENT, user_id INTEGER, session_tm timestamp default CURRENT_TIMESTAMP, foreign key (user_id) references users(id) on delete cascade )");
+			statement.executeUpdate("create table if not exists terminal_log (session_id BIGINT, instance_id INTEGER, system_id INTEGER, output varchar not null, log_tm timestamp default CURRENT_TIMESTAMP, foreign key (session_id) references session_log(id) on delete cascade, foreign key (system_id) references system(id) on delete cascade)");
+		} finally {
+			DBUtils.closeStmt(statement);
+		}
+	}
 }
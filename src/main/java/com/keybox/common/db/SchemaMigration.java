@@ -0,0 +1,104 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.common.db;
+
+import com.keybox.manage.util.DBUtils;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Versioned change to the database schema. Statements must be safe to run again, since DDL is
+ * committed as it runs and a step interrupted before it is recorded is applied again on restart
+ */
+public class SchemaMigration {
+
+    int version;
+    String description;
+    String[] statements;
+    //applied on a background thread after startup, for long running changes the application can run without
+    boolean online = false;
+
+    public SchemaMigration(int version, String description, String... statements) {
+        this.version = version;
+        this.description = description;
+        this.statements = statements;
+    }
+
+    public SchemaMigration(int version, String description, boolean online, String... statements) {
+        this(version, description, statements);
+        this.online = online;
+    }
+
+    /**
+     * applies the change, override to make changes that need more than SQL statements. A step
+     * that overrides apply must also override getRevision so changes to its code are detected
+     *
+     * @param con DB connection
+     */
+    public void apply(Connection con) throws SQLException {
+        Statement stmt = con.createStatement();
+        try {
+            for (String sql : statements) {
+                stmt.executeUpdate(sql);
+            }
+        } finally {
+            DBUtils.closeStmt(stmt);
+        }
+    }
+
+    /**
+     * returns the revision of the code in an overridden apply, to be changed whenever that code is
+     *
+     * @return revision of the step's code, null for a step that only runs its statements
+     */
+    public String getRevision() {
+        return null;
+    }
+
+    /**
+     * @return checksum of the statements and revision, used to detect a step changed after it was applied
+     */
+    public String getChecksum() {
+        String revision = getRevision();
+        if (revision == null) {
+            if (getClass() != SchemaMigration.class) {
+                throw new IllegalStateException("Schema version " + version + " overrides apply without a revision");
+            }
+            return DigestUtils.sha256Hex(StringUtils.join(statements, "\n"));
+        }
+        return DigestUtils.sha256Hex(StringUtils.join(statements, "\n") + "\n" + revision);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String[] getStatements() {
+        return statements;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+}
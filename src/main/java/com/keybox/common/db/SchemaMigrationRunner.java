@@ -0,0 +1,220 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.common.db;
+
+import com.keybox.manage.db.PublicKeyDB;
+import com.keybox.manage.util.DBUtils;
+import com.keybox.manage.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies schema migrations not yet recorded in the schema_version table in version order.
+ * The checksum of each applied step is stored so a step edited after release is reported rather
+ * than silently skipped. Steps are applied in order until the first online step, that step and
+ * those after it are applied on a background thread once startup has finished
+ */
+public class SchemaMigrationRunner {
+
+    private static Logger log = LoggerFactory.getLogger(SchemaMigrationRunner.class);
+
+    private static final int KEY_BACKFILL_BATCH_SIZE = 100;
+
+    private static final List<SchemaMigration> migrationList = Arrays.asList(
+            new SchemaMigration(1, "audit and status indexes",
+                    "create index if not exists terminal_log_session_idx on terminal_log (session_id, instance_id, log_tm)",
+                    "create index if not exists status_user_idx on status (user_id, status_cd, id)"),
+            new SchemaMigration(2, "key change journal",
+                    "create table if not exists key_change (system_id INTEGER PRIMARY KEY, change_tm timestamp not null default CURRENT_TIMESTAMP(), foreign key (system_id) references system(id) on delete cascade)",
+                    "create table if not exists system_keys_digest (system_id INTEGER PRIMARY KEY, digest varchar not null, verified_tm timestamp not null default CURRENT_TIMESTAMP(), foreign key (system_id) references system(id) on delete cascade)"),
+            new SchemaMigration(3, "compressed terminal log chunks",
+                    "create table if not exists terminal_log_chunk (id BIGINT PRIMARY KEY AUTO_INCREMENT, session_id BIGINT, instance_id INTEGER, system_id INTEGER, start_tm timestamp not null, end_tm timestamp not null, output_length INTEGER not null, output BLOB not null, normalizer_state INTEGER not null default 0, line_prefix varchar, foreign key (session_id) references session_log(id) on delete cascade, foreign key (system_id) references system(id) on delete cascade)",
+                    "create index if not exists terminal_log_chunk_idx on terminal_log_chunk (session_id, instance_id, start_tm)",
+                    "alter table terminal_log_chunk add column if not exists normalizer_state INTEGER not null default 0",
+                    "alter table terminal_log_chunk add column if not exists line_prefix varchar"),
+            new SchemaMigration(4, "terminal output search",
+                    "create table if not exists terminal_log_text (id BIGINT PRIMARY KEY AUTO_INCREMENT, session_id BIGINT, instance_id INTEGER, system_id INTEGER, start_tm timestamp not null, end_tm timestamp not null, output CLOB not null, foreign key (session_id) references session_log(id) on delete cascade, foreign key (system_id) references system(id) on delete cascade)",
+                    "create index if not exists terminal_log_text_idx on terminal_log_text (session_id, instance_id, start_tm)",
+                    "create alias if not exists FT_INIT for \"org.h2.fulltext.FullText.init\"",
+                    "call FT_INIT()") {
+                @Override
+                public String getRevision() {
+                    return "create full text index on terminal_log_text output";
+                }
+
+                @Override
+                public void apply(Connection con) throws SQLException {
+                    super.apply(con);
+                    //full text index over normalized terminal output
+                    Statement stmt = con.createStatement();
+                    ResultSet rs = stmt.executeQuery("select * from FT.INDEXES where schema='PUBLIC' and table='TERMINAL_LOG_TEXT'");
+                    if (!rs.next()) {
+                        stmt.execute("call FT_CREATE_INDEX('PUBLIC', 'TERMINAL_LOG_TEXT', 'OUTPUT')");
+                    }
+                    DBUtils.closeRs(rs);
+                    DBUtils.closeStmt(stmt);
+                }
+            },
+            new SchemaMigration(5, "audit retention indexes", true,
+                    "create index if not exists session_log_tm_idx on session_log (session_tm)",
+                    "create index if not exists terminal_log_tm_idx on terminal_log (log_tm)",
+                    "create index if not exists terminal_log_chunk_tm_idx on terminal_log_chunk (start_tm)",
+                    "create index if not exists terminal_log_text_tm_idx on terminal_log_text (start_tm)"),
+            new SchemaMigration(6, "public key type and fingerprint backfill", true) {
+                @Override
+                public String getRevision() {
+                    return "update missing key info in batches by id";
+                }
+
+                @Override
+                public void apply(Connection con) throws SQLException {
+                    //keys stored before type and fingerprint were kept are parsed once here instead of on every listing
+                    Long afterId = 0L;
+                    while (afterId != null) {
+                        afterId = PublicKeyDB.updateMissingKeyInfo(con, afterId, KEY_BACKFILL_BATCH_SIZE);
+                    }
+                }
+            },
+            new SchemaMigration(7, "replay keyframe screen",
+                    "alter table terminal_log_chunk add column if not exists screen varchar")
+    );
+
+    private SchemaMigrationRunner() {
+    }
+
+    /**
+     * applies pending migrations, online migrations continue on a background thread
+     *
+     * @param con DB connection
+     */
+    public static void migrate(Connection con) throws SQLException {
+        migrate(con, true);
+    }
+
+    /**
+     * applies pending migrations
+     *
+     * @param con        DB connection
+     * @param background true to apply online migrations on a background thread, false to apply
+     *                   all migrations on the given connection before returning
+     */
+    public static void migrate(Connection con, boolean background) throws SQLException {
+
+        Statement stmt = con.createStatement();
+        stmt.executeUpdate("create table if not exists schema_version (version INTEGER PRIMARY KEY, description varchar not null, checksum varchar, execution_ms BIGINT, installed_tm timestamp not null default CURRENT_TIMESTAMP())");
+        stmt.executeUpdate("alter table schema_version add column if not exists checksum varchar");
+        stmt.executeUpdate("alter table schema_version add column if not exists execution_ms BIGINT");
+
+        Map<Integer, String> appliedMap = new HashMap<>();
+        ResultSet rs = stmt.executeQuery("select version, checksum from schema_version");
+        while (rs.next()) {
+            appliedMap.put(rs.getInt("version"), rs.getString("checksum"));
+        }
+        DBUtils.closeRs(rs);
+        DBUtils.closeStmt(stmt);
+
+        final List<SchemaMigration> pendingList = new ArrayList<>();
+        for (SchemaMigration migration : migrationList) {
+            if (!appliedMap.containsKey(migration.getVersion())) {
+                pendingList.add(migration);
+            } else if (appliedMap.get(migration.getVersion()) == null) {
+                //recorded before checksums were kept
+                PreparedStatement pStmt = con.prepareStatement("update schema_version set checksum=? where version=?");
+                pStmt.setString(1, migration.getChecksum());
+                pStmt.setInt(2, migration.getVersion());
+                pStmt.execute();
+                DBUtils.closeStmt(pStmt);
+            } else if (!appliedMap.get(migration.getVersion()).equals(migration.getChecksum())) {
+                log.error("Schema version " + migration.getVersion() + " (" + migration.getDescription() + ") has changed since it was applied, pending schema versions will not be applied");
+                return;
+            }
+        }
+
+        while (!pendingList.isEmpty() && (!background || !pendingList.get(0).isOnline())) {
+            if (!apply(con, pendingList.remove(0))) {
+                return;
+            }
+        }
+
+        if (!pendingList.isEmpty()) {
+            new NamedThreadFactory("keybox-migration").newThread(new Runnable() {
+                @Override
+                public void run() {
+                    Connection con = null;
+                    try {
+                        con = DBUtils.getConn();
+                        for (SchemaMigration migration : pendingList) {
+                            if (!apply(con, migration)) {
+                                break;
+                            }
+                        }
+                    } finally {
+                        DBUtils.closeConn(con);
+                    }
+                }
+            }).start();
+        }
+    }
+
+    /**
+     * applies a migration and records its version, checksum and time taken
+     *
+     * @param con       DB connection
+     * @param migration schema migration
+     * @return true if applied
+     */
+    private static boolean apply(Connection con, SchemaMigration migration) {
+
+        long startTm = System.currentTimeMillis();
+        try {
+            migration.apply(con);
+            long executionMs = System.currentTimeMillis() - startTm;
+
+            PreparedStatement stmt = con.prepareStatement("insert into schema_version (version, description, checksum, execution_ms) values (?,?,?,?)");
+            stmt.setInt(1, migration.getVersion());
+            stmt.setString(2, migration.getDescription());
+            stmt.setString(3, migration.getChecksum());
+            stmt.setLong(4, executionMs);
+            stmt.execute();
+            DBUtils.closeStmt(stmt);
+
+            log.info("Applied schema version " + migration.getVersion() + " (" + migration.getDescription() + ") in " + executionMs + "ms");
+            return true;
+
+        } catch (Exception e) {
+            log.error("Unable to apply schema version " + migration.getVersion() + " (" + migration.getDescription() + ")", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return schema migrations in version order
+     */
+    public static List<SchemaMigration> getMigrationList() {
+        return migrationList;
+    }
+}
@@ -83,9 +83,10 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 		profileList = ProfileDB.getAllProfiles();
 		userList= UserDB.getUserSet(new SortedSet(SessionAuditDB.SORT_BY_USERNAME)).getItemList();
 
+		sortedSet.setPageSize(SortedSet.PAGE_SIZE);
 		sortedSet = PublicKeyDB.getPublicKeySet(sortedSet);
 
-		distributePublicKeys(publicKey);
+		RefreshAuthKeyUtil.refreshChangedSystems();
 		
 		return SUCCESS;
 	}
@@ -104,9 +105,10 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 		profileList = ProfileDB.getAllProfiles();
 		userList= UserDB.getUserSet(new SortedSet(SessionAuditDB.SORT_BY_USERNAME)).getItemList();
 
+		sortedSet.setPageSize(SortedSet.PAGE_SIZE);
 		sortedSet = PublicKeyDB.getPublicKeySet(sortedSet);
 
-		distributePublicKeys(publicKey);
+		RefreshAuthKeyUtil.refreshChangedSystems();
 		
 		return SUCCESS;
 	}
@@ -121,6 +123,7 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 		profileList = ProfileDB.getAllProfiles();
 		userList= UserDB.getUserSet(new SortedSet(SessionAuditDB.SORT_BY_USERNAME)).getItemList();
 
+		sortedSet.setPageSize(SortedSet.PAGE_SIZE);
 		sortedSet = PublicKeyDB.getPublicKeySet(sortedSet);
 
 		return SUCCESS;
@@ -143,6 +146,7 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 		} else {
 			profileList = UserProfileDB.getProfilesByUser(userId);
 		}
+		sortedSet.setPageSize(SortedSet.PAGE_SIZE);
 		sortedSet = PublicKeyDB.getPublicKeySet(sortedSet, userId);
 		
 		userPublicKeyList = PublicKeyDB.getUniquePublicKeysForUser(userId);
@@ -171,7 +175,7 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 				PublicKeyDB.insertPublicKey(publicKey);
 			}
 			
-			distributePublicKeys(publicKey);
+			RefreshAuthKeyUtil.refreshChangedSystems();
 		}
 
 		return SUCCESS;
@@ -192,7 +196,7 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 			PublicKeyDB.deletePublicKey(publicKey.getId(), AuthUtil.getUserId(servletRequest.getSession()));
 		}
 
-		distributePublicKeys(publicKey);
+		RefreshAuthKeyUtil.refreshChangedSystems();
 
 		return SUCCESS;
 	}
@@ -335,6 +339,7 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 				profileList = UserProfileDB.getProfilesByUser(userId);
 			}
 
+			sortedSet.setPageSize(SortedSet.PAGE_SIZE);
 			sortedSet = PublicKeyDB.getPublicKeySet(sortedSet, userId);
 			userPublicKeyList = PublicKeyDB.getUniquePublicKeysForUser(userId);
 		}
@@ -343,22 +348,6 @@ public class AuthKeysAction extends ActionSupport implements ServletRequestAware
 
 
 
-	/**
-	 * distribute public keys to all systems or to profile
-	 *
-	 * @param publicKey public key to distribute
-	 */
-	private void distributePublicKeys(PublicKey publicKey){
-		
-		if (publicKey.getProfile() != null && publicKey.getProfile().getId() != null) {
-			RefreshAuthKeyUtil.refreshProfileSystems(publicKey.getProfile().getId());
-		} else {
-			RefreshAuthKeyUtil.refreshAllSystems();
-		}
-		
-	}
-
-
 	public HttpServletRequest getServletRequest() {
 		return servletRequest;
 	}
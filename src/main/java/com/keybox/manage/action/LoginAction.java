@@ -142,6 +142,7 @@ public class LoginAction extends ActionSupport implements ServletRequestAware, S
             }
     )
     public String logout() {
+        AuthDB.invalidateAuthorization(AuthUtil.getUserId(servletRequest.getSession()));
         AuthUtil.deleteAllSession(servletRequest.getSession());
         return SUCCESS;
     }
@@ -19,6 +19,7 @@ import com.keybox.manage.db.ProfileDB;
 import com.keybox.manage.model.Profile;
 import com.keybox.manage.model.Script;
 import com.keybox.manage.model.SortedSet;
+import com.keybox.manage.util.RefreshAuthKeyUtil;
 import com.opensymphony.xwork2.ActionSupport;
 import org.apache.struts2.convention.annotation.Action;
 import org.apache.struts2.convention.annotation.InterceptorRef;
@@ -74,6 +75,7 @@ public class ProfileAction extends ActionSupport {
 
         if (profile.getId() != null) {
             ProfileDB.deleteProfile(profile.getId());
+            RefreshAuthKeyUtil.refreshChangedSystems();
         }
         return SUCCESS;
     }
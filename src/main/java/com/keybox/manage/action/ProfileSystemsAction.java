@@ -62,7 +62,7 @@ public class ProfileSystemsAction extends ActionSupport {
         if (systemSelectId != null) {
             ProfileSystemsDB.setSystemsForProfile(profile.getId(), systemSelectId);
         }
-        RefreshAuthKeyUtil.refreshProfileSystems(profile.getId());
+        RefreshAuthKeyUtil.refreshChangedSystems();
         return SUCCESS;
     }
 
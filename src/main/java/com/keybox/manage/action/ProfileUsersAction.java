@@ -64,7 +64,7 @@ public class ProfileUsersAction extends ActionSupport {
         if (userSelectId!=null) {
             UserProfileDB.setUsersForProfile(profile.getId(), userSelectId);
         }
-        RefreshAuthKeyUtil.refreshProfileSystems(profile.getId());
+        RefreshAuthKeyUtil.refreshChangedSystems();
         return SUCCESS;
     }
 
@@ -15,6 +15,7 @@
  */
 package com.keybox.manage.action;
 
+import com.google.gson.Gson;
 import com.jcraft.jsch.ChannelShell;
 import com.keybox.common.util.AuthUtil;
 import com.keybox.manage.db.*;
@@ -22,6 +23,7 @@ import com.keybox.manage.model.*;
 import com.keybox.manage.model.SortedSet;
 import com.keybox.manage.util.SSHUtil;
 import com.opensymphony.xwork2.ActionSupport;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.struts2.convention.annotation.Action;
 import org.apache.struts2.convention.annotation.InterceptorRef;
 import org.apache.struts2.convention.annotation.Result;
@@ -82,10 +84,9 @@ public class SecureShellAction extends ActionSupport implements ServletRequestAw
 
             //get status
             currentSystemStatus = SystemStatusDB.getSystemStatus(pendingSystemStatus.getId(), userId);
-            //if initial status run script
+            //if password or passphrase was required retry system
             if (currentSystemStatus != null
-                    && (HostSystem.INITIAL_STATUS.equals(currentSystemStatus.getStatusCd())
-                    || HostSystem.AUTH_FAIL_STATUS.equals(currentSystemStatus.getStatusCd())
+                    && (HostSystem.AUTH_FAIL_STATUS.equals(currentSystemStatus.getStatusCd())
                     || HostSystem.PUBLIC_KEY_FAIL_STATUS.equals(currentSystemStatus.getStatusCd()))
                     ) {
 
@@ -99,15 +100,29 @@ public class SecureShellAction extends ActionSupport implements ServletRequestAw
 
                 pendingSystemStatus = currentSystemStatus;
 
-            } else {
+            } else if (currentSystemStatus != null) {
 
-                pendingSystemStatus = SystemStatusDB.getNextPendingSystem(userId);
-                //if success loop through systems until finished or need password
-                while (pendingSystemStatus != null && currentSystemStatus != null && HostSystem.SUCCESS_STATUS.equals(currentSystemStatus.getStatusCd())) {
-                    currentSystemStatus = SSHUtil.openSSHTermOnSystem(passphrase, password, userId, sessionId, pendingSystemStatus, userSchSessionMap);
-                    pendingSystemStatus = SystemStatusDB.getNextPendingSystem(userId);
+                //connect to all systems that have not been tried in parallel
+                List<String> statusCdList = new ArrayList<>();
+                statusCdList.add(HostSystem.INITIAL_STATUS);
+                //retry systems that need a password or passphrase with the one that was entered
+                if (StringUtils.isNotEmpty(password)) {
+                    statusCdList.add(HostSystem.AUTH_FAIL_STATUS);
+                }
+                if (StringUtils.isNotEmpty(passphrase)) {
+                    statusCdList.add(HostSystem.PUBLIC_KEY_FAIL_STATUS);
+                }
+                List<HostSystem> statusList = SSHUtil.openSSHTermsOnSystems(passphrase, password, userId, sessionId, SystemStatusDB.getSystemsByStatus(userId, statusCdList), userSchSessionMap);
+
+                //show error for a system that failed to connect
+                for (HostSystem hostSystem : statusList) {
+                    if (HostSystem.GENERIC_FAIL_STATUS.equals(hostSystem.getStatusCd())
+                            || HostSystem.HOST_FAIL_STATUS.equals(hostSystem.getStatusCd())) {
+                        currentSystemStatus = hostSystem;
+                    }
                 }
 
+                pendingSystemStatus = SystemStatusDB.getNextPendingSystem(userId);
 
             }
 
@@ -137,6 +152,33 @@ public class SecureShellAction extends ActionSupport implements ServletRequestAw
     }
 
 
+    /**
+     * returns connection status of the selected systems as they are being connected
+     */
+    @Action(value = "/admin/getConnectStatus")
+    public String getConnectStatus() {
+
+        Long userId = AuthUtil.getUserId(servletRequest.getSession());
+
+        List<Map<String, Object>> statusList = new ArrayList<>();
+        for (HostSystem hostSystem : SystemStatusDB.getAllSystemStatus(userId)) {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("id", hostSystem.getId());
+            status.put("displayLabel", hostSystem.getDisplayLabel());
+            status.put("statusCd", hostSystem.getStatusCd());
+            statusList.add(status);
+        }
+        try {
+            servletResponse.setContentType("application/json");
+            servletResponse.getOutputStream().write(new Gson().toJson(statusList).getBytes());
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        }
+
+        return null;
+    }
+
+
     @Action(value = "/admin/getNextPendingSystemForTerms",
             results = {
                     @Result(name = "success", location = "/admin/secure_shell.jsp")
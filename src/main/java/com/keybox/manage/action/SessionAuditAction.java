@@ -17,10 +17,14 @@ package com.keybox.manage.action;
 
 import com.keybox.manage.db.SessionAuditDB;
 import com.keybox.manage.db.SystemDB;
+import com.keybox.manage.db.TerminalLogSearchDB;
 import com.keybox.manage.db.UserDB;
 import com.keybox.manage.model.HostSystem;
 import com.keybox.manage.model.SessionAudit;
 import com.keybox.manage.model.SortedSet;
+import com.keybox.manage.model.TerminalLogHit;
+import com.keybox.manage.model.TerminalLogPage;
+import com.keybox.manage.model.TerminalReplay;
 import com.google.gson.Gson;
 import com.keybox.manage.model.User;
 import com.opensymphony.xwork2.ActionSupport;
@@ -28,7 +32,11 @@ import org.apache.struts2.convention.annotation.Action;
 import org.apache.struts2.convention.annotation.InterceptorRef;
 import org.apache.struts2.convention.annotation.Result;
 import org.apache.struts2.interceptor.ServletResponseAware;
+import org.apache.commons.lang3.StringUtils;
 import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,10 +49,18 @@ public class SessionAuditAction extends ActionSupport implements ServletResponse
 
     private static Logger log = LoggerFactory.getLogger(SessionAuditAction.class);
 
+    //length in milliseconds of a replay window
+    private static final long REPLAY_DURATION = 60000;
+    private static final long MAX_REPLAY_DURATION = 10 * 60000;
+
     SortedSet sortedSet=new SortedSet();
     Long sessionId;
     Integer instanceId;
+    String cursor;
+    Long time;
+    Long duration;
     SessionAudit sessionAudit;
+    List<TerminalLogHit> hitList;
     HttpServletResponse servletResponse;
     List<HostSystem> systemList= SystemDB.getSystemSet(new SortedSet(SystemDB.SORT_BY_NAME)).getItemList();
     List<User> userList= UserDB.getUserSet(new SortedSet(SessionAuditDB.SORT_BY_USERNAME)).getItemList();
@@ -62,7 +78,17 @@ public class SessionAuditAction extends ActionSupport implements ServletResponse
         }
 
 
-        sortedSet= SessionAuditDB.getSessions(sortedSet);
+        String text = sortedSet.getFilterMap().get(SessionAuditDB.FILTER_BY_TEXT);
+        if (StringUtils.isNotBlank(text)) {
+            String userId = sortedSet.getFilterMap().get(SessionAuditDB.FILTER_BY_USER_ID);
+            String systemId = sortedSet.getFilterMap().get(SessionAuditDB.FILTER_BY_SYSTEM_ID);
+            hitList = TerminalLogSearchDB.search(text,
+                    StringUtils.isNumeric(userId) && StringUtils.isNotEmpty(userId) ? Long.valueOf(userId) : null,
+                    StringUtils.isNumeric(systemId) && StringUtils.isNotEmpty(systemId) ? Long.valueOf(systemId) : null);
+        } else {
+            sortedSet.setPageSize(SortedSet.PAGE_SIZE);
+            sortedSet= SessionAuditDB.getSessions(sortedSet);
+        }
 
 
         return SUCCESS;
@@ -96,6 +122,39 @@ public class SessionAuditAction extends ActionSupport implements ServletResponse
 
     }
 
+    @Action(value = "/manage/getJSONTermOutputPage")
+    public String getJSONTermOutputPage() {
+
+        TerminalLogPage page = SessionAuditDB.getTerminalLogPage(sessionId, instanceId, cursor);
+        try {
+            Writer writer = new OutputStreamWriter(servletResponse.getOutputStream(), StandardCharsets.UTF_8);
+            new Gson().toJson(page, writer);
+            writer.flush();
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        }
+
+        return null;
+
+    }
+
+    @Action(value = "/manage/getJSONTermReplay")
+    public String getJSONTermReplay() {
+
+        long replayDuration = duration == null || duration <= 0 ? REPLAY_DURATION : Math.min(duration, MAX_REPLAY_DURATION);
+        TerminalReplay replay = SessionAuditDB.getTerminalReplay(sessionId, instanceId, time == null ? 0 : time, replayDuration);
+        try {
+            Writer writer = new OutputStreamWriter(servletResponse.getOutputStream(), StandardCharsets.UTF_8);
+            new Gson().toJson(replay, writer);
+            writer.flush();
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        }
+
+        return null;
+
+    }
+
     public List<HostSystem> getSystemList() {
         return systemList;
     }
@@ -128,6 +187,14 @@ public class SessionAuditAction extends ActionSupport implements ServletResponse
         this.sessionId = sessionId;
     }
 
+    public List<TerminalLogHit> getHitList() {
+        return hitList;
+    }
+
+    public void setHitList(List<TerminalLogHit> hitList) {
+        this.hitList = hitList;
+    }
+
     public SessionAudit getSessionAudit() {
         return sessionAudit;
     }
@@ -144,6 +211,14 @@ public class SessionAuditAction extends ActionSupport implements ServletResponse
         this.servletResponse = servletResponse;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public Integer getInstanceId() {
         return instanceId;
     }
@@ -151,4 +226,20 @@ public class SessionAuditAction extends ActionSupport implements ServletResponse
     public void setInstanceId(Integer instanceId) {
         this.instanceId = instanceId;
     }
+
+    public Long getTime() {
+        return time;
+    }
+
+    public void setTime(Long time) {
+        this.time = time;
+    }
+
+    public Long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(Long duration) {
+        this.duration = duration;
+    }
 }
@@ -15,13 +15,16 @@
  */
 package com.keybox.manage.action;
 
+import com.keybox.common.util.AppConfig;
 import com.keybox.common.util.AuthUtil;
+import com.keybox.manage.db.KeyChangeDB;
 import com.keybox.manage.db.ProfileDB;
 import com.keybox.manage.db.ScriptDB;
 import com.keybox.manage.db.SystemDB;
 import com.keybox.manage.db.UserProfileDB;
 import com.keybox.manage.model.*;
 import com.keybox.manage.util.SSHUtil;
+import com.keybox.manage.util.TerminalPoolUtil;
 import com.opensymphony.xwork2.ActionSupport;
 import org.apache.struts2.convention.annotation.Action;
 import org.apache.struts2.convention.annotation.InterceptorRef;
@@ -46,6 +49,8 @@ public class SystemAction extends ActionSupport implements ServletRequestAware {
     String password;
     String passphrase;
     List<Profile> profileList= new ArrayList<>();
+    Integer shellPoolSize;
+    Integer webSocketPoolSize;
 
 
     @Action(value = "/admin/viewSystems",
@@ -77,7 +82,8 @@ public class SystemAction extends ActionSupport implements ServletRequestAware {
     )
     public String viewManageSystems() {
 
-        sortedSet = SystemDB.getSystemSet(sortedSet); 
+        sortedSet.setPageSize(SortedSet.PAGE_SIZE);
+        sortedSet = SystemDB.getSystemSet(sortedSet);
 
         return SUCCESS;
     }
@@ -95,9 +101,12 @@ public class SystemAction extends ActionSupport implements ServletRequestAware {
 
         if (hostSystem.getId() != null) {
             SystemDB.updateSystem(hostSystem);
+            //host or authorized keys file may have changed
+            KeyChangeDB.updateKeysDigest(hostSystem.getId(), null);
         } else {
             hostSystem.setId(SystemDB.insertSystem(hostSystem));
         }
+        sortedSet.setPageSize(SortedSet.PAGE_SIZE);
         sortedSet = SystemDB.getSystemSet(sortedSet);
 
         if (!HostSystem.SUCCESS_STATUS.equals(hostSystem.getStatusCd())) {
@@ -119,6 +128,24 @@ public class SystemAction extends ActionSupport implements ServletRequestAware {
         return SUCCESS;
     }
 
+    @Action(value = "/manage/updateTerminalPools",
+            results = {
+                    @Result(name = "success", location = "/manage/viewSystems.action?sortedSet.orderByDirection=${sortedSet.orderByDirection}&sortedSet.orderByField=${sortedSet.orderByField}", type = "redirect")
+            }
+    )
+    public String updateTerminalPools() {
+
+        if (shellPoolSize != null && shellPoolSize > 0) {
+            TerminalPoolUtil.setShellPoolSize(shellPoolSize);
+            AppConfig.updateProperty("shellPoolSize", shellPoolSize.toString());
+        }
+        if (webSocketPoolSize != null && webSocketPoolSize > 0) {
+            TerminalPoolUtil.setWebSocketPoolSize(webSocketPoolSize);
+            AppConfig.updateProperty("webSocketPoolSize", webSocketPoolSize.toString());
+        }
+        return SUCCESS;
+    }
+
     /**
      * Validates all fields for adding a host system
      */
@@ -153,6 +180,7 @@ public class SystemAction extends ActionSupport implements ServletRequestAware {
 
         if (!this.getFieldErrors().isEmpty()) {
 
+            sortedSet.setPageSize(SortedSet.PAGE_SIZE);
             sortedSet = SystemDB.getSystemSet(sortedSet);
         }
 
@@ -216,4 +244,20 @@ public class SystemAction extends ActionSupport implements ServletRequestAware {
         this.servletRequest = servletRequest;
     }
 
+    public Integer getShellPoolSize() {
+        return shellPoolSize;
+    }
+
+    public void setShellPoolSize(Integer shellPoolSize) {
+        this.shellPoolSize = shellPoolSize;
+    }
+
+    public Integer getWebSocketPoolSize() {
+        return webSocketPoolSize;
+    }
+
+    public void setWebSocketPoolSize(Integer webSocketPoolSize) {
+        this.webSocketPoolSize = webSocketPoolSize;
+    }
+
 }
@@ -53,6 +53,7 @@ public class UsersAction extends ActionSupport  implements ServletRequestAware {
     )
     public String viewUsers() {
         Long userId= AuthUtil.getUserId(servletRequest.getSession());
+        sortedSet.setPageSize(SortedSet.PAGE_SIZE);
         sortedSet = UserDB.getUserSet(sortedSet);
         user.setId(userId);
         return SUCCESS;
@@ -95,7 +96,7 @@ public class UsersAction extends ActionSupport  implements ServletRequestAware {
         if (user.getId() != null && !user.getId().equals(AuthUtil.getUserId(servletRequest.getSession()))) {
             UserDB.disableUser(user.getId());
             PublicKeyDB.deleteUserPublicKeys(user.getId());
-            RefreshAuthKeyUtil.refreshAllSystems();
+            RefreshAuthKeyUtil.refreshChangedSystems();
         }
         return SUCCESS;
     }
@@ -139,6 +140,7 @@ public class UsersAction extends ActionSupport  implements ServletRequestAware {
         }
         if (!this.getFieldErrors().isEmpty()||!this.getActionErrors().isEmpty()) {
             Long userId = AuthUtil.getUserId(servletRequest.getSession());
+            sortedSet.setPageSize(SortedSet.PAGE_SIZE);
             sortedSet = UserDB.getUserSet(sortedSet);
             user.setId(userId);
         }
@@ -15,17 +15,25 @@
  */
 package com.keybox.manage.db;
 
+import com.keybox.common.util.AppConfig;
 import com.keybox.manage.model.Auth;
 import com.keybox.manage.model.User;
 import com.keybox.manage.util.DBUtils;
 import com.keybox.manage.util.EncryptionUtil;
 import com.keybox.manage.util.ExternalAuthUtil;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +44,22 @@ public class AuthDB {
 
     private static Logger log = LoggerFactory.getLogger(AuthDB.class);
 
+    //seconds an authorized user type is cached, 0 to check the DB on every request
+    private static final int AUTH_CACHE_TTL = StringUtils.isNumeric(AppConfig.getProperty("authCacheTTL")) ? Integer.parseInt(AppConfig.getProperty("authCacheTTL")) : 30;
+    private static final int AUTH_CACHE_SIZE = StringUtils.isNumeric(AppConfig.getProperty("authCacheSize")) ? Integer.parseInt(AppConfig.getProperty("authCacheSize")) : 1000;
+
+    //authorized user type by user id and hash of the auth token, least recently used are evicted
+    private static final Map<String, AuthCacheEntry> authCacheMap = Collections.synchronizedMap(new LinkedHashMap<String, AuthCacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AuthCacheEntry> eldest) {
+            return size() > AUTH_CACHE_SIZE;
+        }
+    });
+    //bumped each time a user's authorizations are invalidated, guarded by authCacheMap
+    private static final Map<Long, Long> authGenerationMap = new HashMap<>();
+    private static final AtomicLong authCacheHitCount = new AtomicLong();
+    private static final AtomicLong authCacheMissCount = new AtomicLong();
+
     private AuthDB() {
     }
 
@@ -101,6 +125,45 @@ public class AuthDB {
 
         String authorized = null;
 
+        if (userId != null && authToken != null && !authToken.trim().equals("") && AUTH_CACHE_TTL > 0) {
+            String key = userId + ":" + DigestUtils.sha256Hex(authToken);
+            AuthCacheEntry entry = authCacheMap.get(key);
+            if (entry != null && entry.expireTm > System.currentTimeMillis()) {
+                authCacheHitCount.incrementAndGet();
+                return entry.userType;
+            }
+            authCacheMissCount.incrementAndGet();
+            long generation;
+            synchronized (authCacheMap) {
+                generation = getAuthGeneration(userId);
+            }
+            authorized = getAuthorizedUserType(userId, authToken);
+            synchronized (authCacheMap) {
+                //only authorized users are cached, a failed check goes to the DB every time,
+                //and not if the user was invalidated while the DB was checked
+                if (authorized == null) {
+                    authCacheMap.remove(key);
+                } else if (generation == getAuthGeneration(userId)) {
+                    authCacheMap.put(key, new AuthCacheEntry(userId, authorized, System.currentTimeMillis() + AUTH_CACHE_TTL * 1000L));
+                }
+            }
+        } else {
+            authorized = getAuthorizedUserType(userId, authToken);
+        }
+        return authorized;
+    }
+
+    /**
+     * returns user type if the auth token is current for the enabled user
+     *
+     * @param userId    user id
+     * @param authToken auth token string
+     * @return user type if authorized, null if not authorized
+     */
+    private static String getAuthorizedUserType(Long userId, String authToken) {
+
+        String authorized = null;
+
         if (authToken != null && !authToken.trim().equals("")) {
 
             Connection con = null;
@@ -157,6 +220,7 @@ public class AuthDB {
             stmt.execute();
 
             DBUtils.closeStmt(stmt);
+            invalidateAuthorization(auth.getId());
 
         } catch (Exception e) {
             log.error(e.toString(), e);
@@ -405,4 +469,71 @@ public class AuthDB {
 
         return user;
     }
+
+    /**
+     * removes cached authorizations for user, called when the user is changed or logs out
+     *
+     * @param userId user id
+     */
+    public static void invalidateAuthorization(Long userId) {
+        if (userId != null) {
+            synchronized (authCacheMap) {
+                authGenerationMap.put(userId, getAuthGeneration(userId) + 1);
+                Iterator<AuthCacheEntry> it = authCacheMap.values().iterator();
+                while (it.hasNext()) {
+                    if (userId.equals(it.next().userId)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * returns the number of times the user's authorizations have been invalidated, the caller
+     * must hold the authCacheMap lock
+     *
+     * @param userId user id
+     * @return generation of the user's authorizations
+     */
+    private static long getAuthGeneration(Long userId) {
+        Long generation = authGenerationMap.get(userId);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * @return authorization checks answered from the cache
+     */
+    public static long getAuthCacheHitCount() {
+        return authCacheHitCount.get();
+    }
+
+    /**
+     * @return authorization checks that went to the DB
+     */
+    public static long getAuthCacheMissCount() {
+        return authCacheMissCount.get();
+    }
+
+    /**
+     * @return authorizations currently cached
+     */
+    public static int getAuthCacheSize() {
+        return authCacheMap.size();
+    }
+
+    /**
+     * cached user type for an authorized user and auth token
+     */
+    private static class AuthCacheEntry {
+        Long userId;
+        String userType;
+        long expireTm;
+
+        AuthCacheEntry(Long userId, String userType, long expireTm) {
+            this.userId = userId;
+            this.userType = userType;
+            this.expireTm = expireTm;
+        }
+    }
 }
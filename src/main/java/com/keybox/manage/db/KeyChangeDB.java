@@ -0,0 +1,235 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.db;
+
+import com.keybox.manage.util.DBUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DAO for the key change journal. Records the systems whose authorized keys have changed
+ * so only those systems need to be refreshed, and the digest of the authorized keys last
+ * written to each system
+ */
+public class KeyChangeDB {
+
+    private static Logger log = LoggerFactory.getLogger(KeyChangeDB.class);
+
+    private static final String MERGE_CHANGE = "merge into key_change (system_id, change_tm) key(system_id) ";
+
+    private KeyChangeDB() {
+    }
+
+
+    /**
+     * records a change for all systems the public key is distributed to
+     *
+     * @param con         DB connection
+     * @param publicKeyId public key id
+     */
+    public static void recordKeyChange(Connection con, Long publicKeyId) {
+
+        try {
+            PreparedStatement stmt = con.prepareStatement(MERGE_CHANGE + "select distinct s.id, CURRENT_TIMESTAMP() from system s, public_keys k where k.id=? and (k.profile_id is null or s.id in (select system_id from system_map where profile_id=k.profile_id))");
+            stmt.setLong(1, publicKeyId);
+            stmt.execute();
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+    }
+
+    /**
+     * records a change for all systems the user's public keys are distributed to
+     *
+     * @param con    DB connection
+     * @param userId user id
+     */
+    public static void recordUserKeysChange(Connection con, Long userId) {
+
+        try {
+            PreparedStatement stmt = con.prepareStatement(MERGE_CHANGE + "select distinct s.id, CURRENT_TIMESTAMP() from system s, public_keys k where k.user_id=? and (k.profile_id is null or s.id in (select system_id from system_map where profile_id=k.profile_id))");
+            stmt.setLong(1, userId);
+            stmt.execute();
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+    }
+
+    /**
+     * records a change for all systems assigned to a profile
+     *
+     * @param con       DB connection
+     * @param profileId profile id
+     */
+    public static void recordProfileChange(Connection con, Long profileId) {
+
+        try {
+            PreparedStatement stmt = con.prepareStatement(MERGE_CHANGE + "select system_id, CURRENT_TIMESTAMP() from system_map where profile_id=?");
+            stmt.setLong(1, profileId);
+            stmt.execute();
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+    }
+
+    /**
+     * records a change for all systems
+     *
+     * @param con DB connection
+     */
+    public static void recordAllSystemsChange(Connection con) {
+
+        try {
+            PreparedStatement stmt = con.prepareStatement(MERGE_CHANGE + "select id, CURRENT_TIMESTAMP() from system");
+            stmt.execute();
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+    }
+
+    /**
+     * returns the ids of systems with changed authorized keys
+     *
+     * @return system id list
+     */
+    public static List<Long> getChangedSystemIds() {
+
+        List<Long> systemIdList = new ArrayList<>();
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            PreparedStatement stmt = con.prepareStatement("select system_id from key_change order by change_tm");
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                systemIdList.add(rs.getLong("system_id"));
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+        return systemIdList;
+    }
+
+    /**
+     * checks if the authorized keys digest for a system matches and was verified after the given time
+     *
+     * @param systemId      system id
+     * @param digest        digest of the authorized keys for the system
+     * @param verifiedAfter time the digest must have been verified after
+     * @return true if the system has the authorized keys
+     */
+    public static boolean isKeysDigestCurrent(Long systemId, String digest, Timestamp verifiedAfter) {
+
+        boolean current = false;
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            PreparedStatement stmt = con.prepareStatement("select * from system_keys_digest where system_id=? and digest=? and verified_tm > ?");
+            stmt.setLong(1, systemId);
+            stmt.setString(2, digest);
+            stmt.setTimestamp(3, verifiedAfter);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                current = true;
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+        return current;
+    }
+
+    /**
+     * sets the digest of the authorized keys written to a system
+     *
+     * @param systemId system id
+     * @param digest   digest of the authorized keys or null if unknown
+     */
+    public static void updateKeysDigest(Long systemId, String digest) {
+
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            PreparedStatement stmt;
+            if (digest == null) {
+                stmt = con.prepareStatement("delete from system_keys_digest where system_id=?");
+                stmt.setLong(1, systemId);
+            } else {
+                stmt = con.prepareStatement("merge into system_keys_digest (system_id, digest, verified_tm) key(system_id) values (?,?,CURRENT_TIMESTAMP())");
+                stmt.setLong(1, systemId);
+                stmt.setString(2, digest);
+            }
+            stmt.execute();
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+    }
+
+    /**
+     * removes the change for a system if no other change was recorded after the given time
+     *
+     * @param systemId  system id
+     * @param refreshTm time the refresh of the system started
+     */
+    public static void clearChange(Long systemId, Timestamp refreshTm) {
+
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            PreparedStatement stmt = con.prepareStatement("delete from key_change where system_id=? and change_tm < ?");
+            stmt.setLong(1, systemId);
+            stmt.setTimestamp(2, refreshTm);
+            stmt.execute();
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.keybox.manage.util.EncryptionUtil;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +33,11 @@ public class PrivateKeyDB {
 
     private static Logger log = LoggerFactory.getLogger(PrivateKeyDB.class);
 
+    //decrypted application key, read when first used and again after the key is rotated
+    private static volatile ApplicationKey applicationKey = null;
+    private static final AtomicLong loadCount = new AtomicLong();
+    private static final AtomicLong decryptCount = new AtomicLong();
+
     private PrivateKeyDB() {
     }
 
@@ -41,6 +47,34 @@ public class PrivateKeyDB {
      */
     public static ApplicationKey getApplicationKey() {
 
+        ApplicationKey appKey = applicationKey;
+        if (appKey == null) {
+            synchronized (PrivateKeyDB.class) {
+                appKey = applicationKey;
+                if (appKey == null) {
+                    appKey = loadApplicationKey();
+                    applicationKey = appKey;
+                }
+            }
+        }
+        return appKey;
+    }
+
+    /**
+     * clears the cached application key so the next call reads the current key
+     */
+    public static void invalidateApplicationKey() {
+        synchronized (PrivateKeyDB.class) {
+            applicationKey = null;
+        }
+    }
+
+    /**
+     * reads and decrypts the application key
+     * @return app key values
+     */
+    private static ApplicationKey loadApplicationKey() {
+
         ApplicationKey appKey = null;
 
         Connection con = null;
@@ -59,10 +93,12 @@ public class PrivateKeyDB {
                 appKey.setPassphrase(EncryptionUtil.decrypt(rs.getString("passphrase")));
                 appKey.setPrivateKey(EncryptionUtil.decrypt(rs.getString("private_key")));
                 appKey.setPublicKey(rs.getString("public_key"));
+                decryptCount.addAndGet(2);
 
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
+            loadCount.incrementAndGet();
 
         } catch (Exception e) {
             log.error(e.toString(), e);
@@ -74,8 +110,18 @@ public class PrivateKeyDB {
         return appKey;
     }
 
+    /**
+     * @return times the application key has been read from the DB
+     */
+    public static long getLoadCount() {
+        return loadCount.get();
+    }
 
-
-
+    /**
+     * @return decrypts of the application private key and passphrase
+     */
+    public static long getDecryptCount() {
+        return decryptCount.get();
+    }
 
 }
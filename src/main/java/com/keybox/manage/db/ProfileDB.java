@@ -258,6 +258,9 @@ public class ProfileDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
+            //profile keys are removed from the profile systems
+            KeyChangeDB.recordProfileChange(con, profileId);
+
             PreparedStatement stmt = con.prepareStatement("delete from profiles where id=?");
             stmt.setLong(1, profileId);
             stmt.execute();
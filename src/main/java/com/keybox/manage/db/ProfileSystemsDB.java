@@ -51,6 +51,9 @@ public class ProfileSystemsDB {
 		try {
 
 			con = DBUtils.getConn();
+			//record systems removed from the profile
+			KeyChangeDB.recordProfileChange(con, profileId);
+
 			PreparedStatement stmt = con.prepareStatement("delete from system_map where profile_id=?");
 			stmt.setLong(1, profileId);
 			stmt.execute();
@@ -64,6 +67,8 @@ public class ProfileSystemsDB {
 				stmt.execute();
 				DBUtils.closeStmt(stmt);
 			}
+			//record systems added to the profile
+			KeyChangeDB.recordProfileChange(con, profileId);
 
 		} catch (Exception e) {
 			log.error(e.toString(), e);
@@ -15,6 +15,7 @@
  */
 package com.keybox.manage.db;
 
+import com.keybox.manage.model.Profile;
 import com.keybox.manage.model.PublicKey;
 import com.keybox.manage.model.SortedSet;
 import com.keybox.manage.util.DBUtils;
@@ -24,6 +25,7 @@ import org.apache.commons.lang3.StringUtils;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -54,6 +56,10 @@ public class PublicKeyDB {
     public static final String SORT_BY_CREATE_DT= CREATE_DT;
     public static final String SORT_BY_USERNAME= "username";
 
+    //key columns with the name and description of the assigned profile
+    private static final String KEY_PROFILE_COLUMNS = "p.*, pr.nm as profile_nm, pr.desc as profile_desc";
+    private static final String PROFILE_JOIN = " left join profiles pr on pr.id=p.profile_id ";
+
     private PublicKeyDB() {
     }
 
@@ -66,6 +72,8 @@ public class PublicKeyDB {
     public static void deleteUnassignedKeysByUser(Connection con, Long userId){
 
         try {
+            KeyChangeDB.recordUserKeysChange(con, userId);
+
             PreparedStatement stmt = con.prepareStatement("delete from public_keys where (profile_id is null or profile_id not in (select profile_id from user_map where user_id=?)) and user_id=?");
             stmt.setLong(1, userId);
             stmt.setLong(2, userId);
@@ -86,6 +94,8 @@ public class PublicKeyDB {
     public static void deleteUnassignedKeysByProfile(Connection con, Long profileId){
 
         try {
+            KeyChangeDB.recordProfileChange(con, profileId);
+
             PreparedStatement stmt = con.prepareStatement("delete from public_keys where profile_id=? and user_id not in (select user_id from user_map where profile_id=?)");
             stmt.setLong(1, profileId);
             stmt.setLong(2, profileId);
@@ -112,6 +122,8 @@ public class PublicKeyDB {
             stmt.execute();
             DBUtils.closeStmt(stmt);
 
+            KeyChangeDB.recordKeyChange(con, id);
+
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
@@ -135,6 +147,8 @@ public class PublicKeyDB {
             stmt.execute();
             DBUtils.closeStmt(stmt);
 
+            KeyChangeDB.recordKeyChange(con, id);
+
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
@@ -187,16 +201,12 @@ public class PublicKeyDB {
         ArrayList<PublicKey> publicKeysList = new ArrayList<>();
 
 
-        String orderBy = "";
-        if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-            orderBy = " order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
-        }
-        String sql = "select p.*, u.username from public_keys p, users u where u.id=p.user_id  ";
+        String sql = "select " + KEY_PROFILE_COLUMNS + ", u.username from public_keys p" + PROFILE_JOIN + ", users u where u.id=p.user_id  ";
 
         sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_USER_ID)) ? " and p.user_id=? " : "";
         sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) ? " and p.profile_id=? " : "";
         sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_ENABLED)) ? " and p.enabled=? " : " and p.enabled=true";
-        sql=sql+orderBy;
+        sql+= DBUtils.getSeekClause(sortedSet, "p.id") + DBUtils.getOrderBy(sortedSet, "p.id");
 
         Connection con = null;
         try {
@@ -211,19 +221,13 @@ public class PublicKeyDB {
                 stmt.setLong(i++, Long.parseLong(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
             }
             if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_ENABLED))){
-                stmt.setBoolean(i, Boolean.valueOf(sortedSet.getFilterMap().get(FILTER_BY_ENABLED)));
+                stmt.setBoolean(i++, Boolean.valueOf(sortedSet.getFilterMap().get(FILTER_BY_ENABLED)));
             }
+            DBUtils.setSeekParams(stmt, i, sortedSet);
             ResultSet rs = stmt.executeQuery();
 
-            while (rs.next()) {
-                PublicKey publicKey = new PublicKey();
-                publicKey.setId(rs.getLong("id"));
-                publicKey.setKeyNm(rs.getString(KEY_NM));
-                publicKey.setPublicKey(rs.getString(PUBLIC_KEY));
-                publicKey.setProfile(ProfileDB.getProfile(con, rs.getLong(PROFILE_ID)));
-                publicKey.setType(SSHUtil.getKeyType(publicKey.getPublicKey()));
-                publicKey.setFingerprint(SSHUtil.getFingerprint(publicKey.getPublicKey()));
-                publicKey.setCreateDt(rs.getTimestamp(CREATE_DT));
+            while (DBUtils.nextPageRow(rs, sortedSet, "id", publicKeysList.size())) {
+                PublicKey publicKey = getPublicKey(rs);
                 publicKey.setUsername(rs.getString("username"));
                 publicKey.setUserId(rs.getLong("user_id"));
                 publicKey.setEnabled(rs.getBoolean("enabled"));
@@ -256,28 +260,18 @@ public class PublicKeyDB {
         ArrayList<PublicKey> publicKeysList = new ArrayList<>();
 
 
-        String orderBy = "";
-        if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-            orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
-        }
-        String sql = "select * from public_keys where user_id = ? and enabled=true " + orderBy;
+        String sql = "select " + KEY_PROFILE_COLUMNS + " from public_keys p" + PROFILE_JOIN + "where p.user_id = ? and p.enabled=true " + DBUtils.getSeekClause(sortedSet, "p.id") + DBUtils.getOrderBy(sortedSet, "p.id");
 
         Connection con = null;
         try {
             con = DBUtils.getConn();
             PreparedStatement stmt = con.prepareStatement(sql);
             stmt.setLong(1, userId);
+            DBUtils.setSeekParams(stmt, 2, sortedSet);
             ResultSet rs = stmt.executeQuery();
 
-            while (rs.next()) {
-                PublicKey publicKey = new PublicKey();
-                publicKey.setId(rs.getLong("id"));
-                publicKey.setKeyNm(rs.getString(KEY_NM));
-                publicKey.setPublicKey(rs.getString(PUBLIC_KEY));
-                publicKey.setProfile(ProfileDB.getProfile(con, rs.getLong(PROFILE_ID)));
-                publicKey.setType(SSHUtil.getKeyType(publicKey.getPublicKey()));
-                publicKey.setFingerprint(SSHUtil.getFingerprint(publicKey.getPublicKey()));
-                publicKey.setCreateDt(rs.getTimestamp(CREATE_DT));
+            while (DBUtils.nextPageRow(rs, sortedSet, "id", publicKeysList.size())) {
+                PublicKey publicKey = getPublicKey(rs);
                 publicKeysList.add(publicKey);
 
             }
@@ -366,7 +360,7 @@ public class PublicKeyDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement("insert into public_keys(key_nm, type, fingerprint, public_key, profile_id, user_id) values (?,?,?,?,?,?)");
+            PreparedStatement stmt = con.prepareStatement("insert into public_keys(key_nm, type, fingerprint, public_key, profile_id, user_id) values (?,?,?,?,?,?)", PreparedStatement.RETURN_GENERATED_KEYS);
             stmt.setString(1, publicKey.getKeyNm());
             stmt.setString(2, SSHUtil.getKeyType(publicKey.getPublicKey()));
             stmt.setString(3, SSHUtil.getFingerprint(publicKey.getPublicKey()));
@@ -379,6 +373,12 @@ public class PublicKeyDB {
             stmt.setLong(6, publicKey.getUserId());
             stmt.execute();
 
+            ResultSet rs = stmt.getGeneratedKeys();
+            if (rs.next()) {
+                publicKey.setId(rs.getLong(1));
+                KeyChangeDB.recordKeyChange(con, publicKey.getId());
+            }
+            DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
 
         } catch (Exception e) {
@@ -402,6 +402,9 @@ public class PublicKeyDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
+            //record systems for the current and the updated profile
+            KeyChangeDB.recordKeyChange(con, publicKey.getId());
+
             PreparedStatement stmt = con.prepareStatement("update public_keys set key_nm=?, type=?, fingerprint=?, public_key=?, profile_id=? where id=? and user_id=? and enabled=true");
             stmt.setString(1, publicKey.getKeyNm());
             stmt.setString(2, SSHUtil.getKeyType(publicKey.getPublicKey()));
@@ -417,6 +420,8 @@ public class PublicKeyDB {
             stmt.execute();
             DBUtils.closeStmt(stmt);
 
+            KeyChangeDB.recordKeyChange(con, publicKey.getId());
+
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
@@ -438,6 +443,8 @@ public class PublicKeyDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
+            KeyChangeDB.recordKeyChange(con, publicKeyId);
+
             PreparedStatement stmt = con.prepareStatement("delete from public_keys where id=? and user_id=? and enabled=true");
             stmt.setLong(1, publicKeyId);
             stmt.setLong(2, userId);
@@ -463,6 +470,8 @@ public class PublicKeyDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
+            KeyChangeDB.recordUserKeysChange(con, userId);
+
             PreparedStatement stmt = con.prepareStatement("delete from public_keys where user_id=? and enabled=true");
             stmt.setLong(1, userId);
             stmt.execute();
@@ -487,6 +496,8 @@ public class PublicKeyDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
+            KeyChangeDB.recordProfileChange(con, profileId);
+
             PreparedStatement stmt = con.prepareStatement("delete from public_keys where profile_id=?");
             stmt.setLong(1, profileId);
             stmt.execute();
@@ -604,19 +615,12 @@ public class PublicKeyDB {
         Map<String, PublicKey> keyMap = new LinkedHashMap();
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement("select * from public_keys where user_id=? and enabled=true order by key_nm asc");
+            PreparedStatement stmt = con.prepareStatement("select " + KEY_PROFILE_COLUMNS + " from public_keys p" + PROFILE_JOIN + "where p.user_id=? and p.enabled=true order by p.key_nm asc");
             stmt.setLong(1, userId);
             ResultSet rs = stmt.executeQuery();
             while(rs.next()){
 
-                PublicKey publicKey = new PublicKey();
-                publicKey.setId(rs.getLong("id"));
-                publicKey.setKeyNm(rs.getString(KEY_NM));
-                publicKey.setPublicKey(rs.getString(PUBLIC_KEY));
-                publicKey.setProfile(ProfileDB.getProfile(con, rs.getLong(PROFILE_ID)));
-                publicKey.setType(SSHUtil.getKeyType(publicKey.getPublicKey()));
-                publicKey.setFingerprint(SSHUtil.getFingerprint(publicKey.getPublicKey()));
-                publicKey.setCreateDt(rs.getTimestamp(CREATE_DT));
+                PublicKey publicKey = getPublicKey(rs);
                 keyMap.put(publicKey.getKeyNm() + " (" + publicKey.getFingerprint() + ")", publicKey);
                 
             }
@@ -633,4 +637,66 @@ public class PublicKeyDB {
         return new ArrayList(keyMap.values());
 
     }
+
+    /**
+     * returns public key for the current row of a query selecting the key and profile columns,
+     * type and fingerprint are only parsed for keys stored without them
+     *
+     * @param rs result set
+     * @return public key
+     */
+    private static PublicKey getPublicKey(ResultSet rs) throws SQLException {
+        PublicKey publicKey = new PublicKey();
+        publicKey.setId(rs.getLong("id"));
+        publicKey.setKeyNm(rs.getString(KEY_NM));
+        publicKey.setPublicKey(rs.getString(PUBLIC_KEY));
+        publicKey.setType(rs.getString("type"));
+        publicKey.setFingerprint(rs.getString("fingerprint"));
+        if (publicKey.getType() == null || publicKey.getFingerprint() == null) {
+            publicKey.setType(SSHUtil.getKeyType(publicKey.getPublicKey()));
+            publicKey.setFingerprint(SSHUtil.getFingerprint(publicKey.getPublicKey()));
+        }
+        publicKey.setCreateDt(rs.getTimestamp(CREATE_DT));
+        if (rs.getString("profile_nm") != null) {
+            Profile profile = new Profile();
+            profile.setId(rs.getLong(PROFILE_ID));
+            profile.setNm(rs.getString("profile_nm"));
+            profile.setDesc(rs.getString("profile_desc"));
+            publicKey.setProfile(profile);
+        }
+        return publicKey;
+    }
+
+    /**
+     * sets type and fingerprint for keys stored without them
+     *
+     * @param con     DB connection
+     * @param afterId only keys with a greater id are updated
+     * @param limit   max keys to update
+     * @return id of the last key read, null if there are no more keys to update
+     */
+    public static Long updateMissingKeyInfo(Connection con, Long afterId, int limit) throws SQLException {
+
+        Long lastId = null;
+        PreparedStatement stmt = con.prepareStatement("select id, public_key from public_keys where (type is null or fingerprint is null) and id > ? order by id asc limit ?");
+        stmt.setLong(1, afterId);
+        stmt.setInt(2, limit);
+        ResultSet rs = stmt.executeQuery();
+
+        PreparedStatement updateStmt = con.prepareStatement("update public_keys set type=?, fingerprint=? where id=?");
+        while (rs.next()) {
+            lastId = rs.getLong("id");
+            String publicKey = rs.getString(PUBLIC_KEY);
+            updateStmt.setString(1, SSHUtil.getKeyType(publicKey));
+            updateStmt.setString(2, SSHUtil.getFingerprint(publicKey));
+            updateStmt.setLong(3, lastId);
+            updateStmt.addBatch();
+        }
+        updateStmt.executeBatch();
+        DBUtils.closeStmt(updateStmt);
+        DBUtils.closeRs(rs);
+        DBUtils.closeStmt(stmt);
+
+        return lastId;
+    }
 }
@@ -17,19 +17,27 @@ package com.keybox.manage.db;
 
 
 import com.keybox.common.util.AppConfig;
+import com.keybox.manage.model.AuditRetentionReport;
 import com.keybox.manage.model.HostSystem;
 import com.keybox.manage.model.SessionAudit;
 import com.keybox.manage.model.SessionOutput;
 import com.keybox.manage.model.SortedSet;
+import com.keybox.manage.model.TerminalLogChunk;
+import com.keybox.manage.model.TerminalLogPage;
+import com.keybox.manage.model.TerminalReplay;
+import com.keybox.manage.model.TerminalReplayFrame;
 import com.keybox.manage.util.DBUtils;
+import com.keybox.manage.util.TerminalLogCodec;
+import com.keybox.manage.util.TerminalOutputNormalizer;
 import org.apache.commons.lang3.StringUtils;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.LinkedList;
 import java.util.List;
 import org.slf4j.Logger;
@@ -45,48 +53,126 @@ public class SessionAuditDB {
     public static final String USER_ID = "user_id";
     public static final String FILTER_BY_USER_ID = USER_ID;
     public static final String FILTER_BY_SYSTEM_ID = "system_id";
+    public static final String FILTER_BY_TEXT = "text";
     
     public static final String SORT_BY_FIRST_NM = "first_nm";
     public static final String SORT_BY_LAST_NM = "last_nm";
     public static final String SORT_BY_EMAIL = "email";
     public static final String SORT_BY_USERNAME = "username";
     public static final String SESSION_TM = "session_tm";
+    private static final String SESSION_ID = "session_id";
     public static final String SORT_BY_SESSION_TM = SESSION_TM;
 
+    //playback reads output logged as rows first and then the chunks
+    private static final int LEGACY_PHASE = 0;
+    private static final int CHUNK_PHASE = 1;
+    //approximate number of characters returned in a page of playback output
+    public static final int PAGE_SIZE = StringUtils.isNumeric(AppConfig.getProperty("auditPageSize")) ? Math.max(1, Integer.parseInt(AppConfig.getProperty("auditPageSize"))) : 262144;
+    private static final int LEGACY_PAGE_ROWS = 2000;
+    private static final int CHUNK_PAGE_ROWS = 8;
+    //lines of output kept on the screen when seeking a replay
+    public static final int REPLAY_SCREEN_LINES = 100;
+    //rows of output read to build the screen for output logged before chunked storage
+    private static final int REPLAY_LEGACY_ROWS = 200;
+    private static final int REPLAY_MAX_FRAMES = 5000;
+
     private SessionAuditDB() {
     }
 
 
     /**
-     * deletes audit history for users if after time set in properties file
+     * deletes a batch of audit history from before the cutoff time. Output is deleted by its
+     * indexed time, and sessions only once the output before the cutoff is gone and only if they
+     * have no output left, so no statement deletes more than the limit of rows. Sessions that ran
+     * past the cutoff are kept until their remaining output is old enough to be deleted
      *
-     * @param con DB connection
+     * @param con      DB connection
+     * @param cutoffTm time audit history is kept from
+     * @param limit    max rows deleted from each table
+     * @param report   retention report updated with the rows deleted
+     * @return number of rows deleted
      */
-    public static void deleteAuditHistory(Connection con) {
+    public static int deleteAuditHistory(Connection con, Timestamp cutoffTm, int limit, AuditRetentionReport report) {
 
+        int count = 0;
         try {
+            int textRows = deleteBatch(con, "delete from terminal_log_text where start_tm < ? limit ?", cutoffTm, limit);
+            int chunks = deleteBatch(con, "delete from terminal_log_chunk where start_tm < ? limit ?", cutoffTm, limit);
+            int outputRows = deleteBatch(con, "delete from terminal_log where log_tm < ? limit ?", cutoffTm, limit);
+            int sessions = 0;
+            //a full batch means older output is left, which a session delete would cascade to
+            if (textRows < limit && chunks < limit && outputRows < limit) {
+                sessions = deleteBatch(con, "delete from session_log s where s.session_tm < ?"
+                        + " and not exists (select 1 from terminal_log l where l.session_id=s.id)"
+                        + " and not exists (select 1 from terminal_log_chunk c where c.session_id=s.id)"
+                        + " and not exists (select 1 from terminal_log_text t where t.session_id=s.id) limit ?", cutoffTm, limit);
+            }
 
-            //delete logs with no terminal entries
-            PreparedStatement stmt = con.prepareStatement("delete from session_log where id not in (select session_id from terminal_log)");
-            stmt.execute();
+            report.setTextRows(report.getTextRows() + textRows);
+            report.setChunks(report.getChunks() + chunks);
+            report.setOutputRows(report.getOutputRows() + outputRows);
+            report.setSessions(report.getSessions() + sessions);
+            report.setBatches(report.getBatches() + 1);
+            count = textRows + chunks + outputRows + sessions;
 
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        return count;
+    }
 
-            //take today's date and subtract how many days to keep history
-            Calendar cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, (-1 * Integer.parseInt(AppConfig.getProperty("deleteAuditLogAfter")))); //subtract
-            java.sql.Date date = new java.sql.Date(cal.getTimeInMillis());
+    /**
+     * deletes sessions with no terminal output from a batch of sessions after the given id
+     *
+     * @param con      DB connection
+     * @param beforeTm time sessions must be created before, recent sessions may still have output waiting to be written
+     * @param afterId  id of the last session checked or 0
+     * @param limit    max sessions checked
+     * @param report   retention report updated with the sessions deleted
+     * @return id of the last session checked or null if there are no more sessions to check
+     */
+    public static Long deleteEmptySessions(Connection con, Timestamp beforeTm, Long afterId, int limit, AuditRetentionReport report) {
 
+        Long lastId = null;
+        try {
+            PreparedStatement stmt = con.prepareStatement("select max(id) as last_id from (select id from session_log where id > ? and session_tm < ? order by id asc limit ?)");
+            stmt.setLong(1, afterId);
+            stmt.setTimestamp(2, beforeTm);
+            stmt.setInt(3, limit);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next() && rs.getObject("last_id") != null) {
+                lastId = rs.getLong("last_id");
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
 
-            stmt = con.prepareStatement("delete from session_log where session_tm < ?");
-            stmt.setDate(1, date);
-            stmt.execute();
+            if (lastId != null) {
+                stmt = con.prepareStatement("delete from session_log s where s.id > ? and s.id <= ? and s.session_tm < ? and not exists (select 1 from terminal_log l where l.session_id=s.id) and not exists (select 1 from terminal_log_chunk c where c.session_id=s.id)");
+                stmt.setLong(1, afterId);
+                stmt.setLong(2, lastId);
+                stmt.setTimestamp(3, beforeTm);
+                int sessions = stmt.executeUpdate();
+                DBUtils.closeStmt(stmt);
 
-            DBUtils.closeStmt(stmt);
+                report.setEmptySessions(report.getEmptySessions() + sessions);
+                report.setSessions(report.getSessions() + sessions);
+                report.setBatches(report.getBatches() + 1);
+            }
 
         } catch (Exception e) {
             log.error(e.toString(), e);
+            lastId = null;
         }
+        return lastId;
+    }
 
+    private static int deleteBatch(Connection con, String sql, Timestamp cutoffTm, int limit) throws SQLException {
+        PreparedStatement stmt = con.prepareStatement(sql);
+        stmt.setTimestamp(1, cutoffTm);
+        stmt.setInt(2, limit);
+        int count = stmt.executeUpdate();
+        DBUtils.closeStmt(stmt);
+        return count;
     }
 
 
@@ -99,24 +185,36 @@ public class SessionAuditDB {
     public static SortedSet getSessions(SortedSet sortedSet) {
         //get db connection
         Connection con = null;
-        List<SessionAudit> outputList = new LinkedList<>();
+        try {
+            con = DBUtils.getConn();
+            sortedSet = getSessions(con, sortedSet);
 
-        String orderBy = "";
-        if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-            orderBy = " order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
+        } catch (Exception e) {
+            log.error(e.toString(), e);
         }
+        finally {
+            DBUtils.closeConn(con);
+        }
+        return sortedSet;
+    }
 
+    /**
+     * returns sessions based on sort order defined
+     *
+     * @param con       DB connection
+     * @param sortedSet object that defines sort order
+     * @return session list
+     */
+    public static SortedSet getSessions(Connection con, SortedSet sortedSet) {
+        List<SessionAudit> outputList = new LinkedList<>();
 
-        String sql = "select * from session_log, users where users.id= session_log.user_id ";
+        String sql = "select session_log.id as " + SESSION_ID + ", session_log.session_tm, users.* from session_log, users where users.id= session_log.user_id ";
         sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_USER_ID)) ? " and session_log.user_id=? " : "";
-        sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID)) ? " and session_log.id in ( select session_id from terminal_log where terminal_log.system_id=? ) " : "";
-        sql+= orderBy;
+        sql+= StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID)) ? " and (session_log.id in ( select session_id from terminal_log where terminal_log.system_id=? ) or session_log.id in ( select session_id from terminal_log_chunk where terminal_log_chunk.system_id=? )) " : "";
+        sql+= DBUtils.getSeekClause(sortedSet, "session_log.id") + DBUtils.getOrderBy(sortedSet, "session_log.id");
 
         try {
 
-            con = DBUtils.getConn();
-            deleteAuditHistory(con);
-
             PreparedStatement stmt = con.prepareStatement(sql);
             int i=1;
             //set filters in prepared statement
@@ -124,15 +222,17 @@ public class SessionAuditDB {
                 stmt.setLong(i++, Long.parseLong(sortedSet.getFilterMap().get(FILTER_BY_USER_ID)));
             }
             if(StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID))){
-                stmt.setLong(i, Long.parseLong(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID)));
+                stmt.setLong(i++, Long.parseLong(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID)));
+                stmt.setLong(i++, Long.parseLong(sortedSet.getFilterMap().get(FILTER_BY_SYSTEM_ID)));
             }
+            DBUtils.setSeekParams(stmt, i, sortedSet);
 
             ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
+            while (DBUtils.nextPageRow(rs, sortedSet, SESSION_ID, outputList.size())) {
                 SessionAudit sessionAudit = new SessionAudit();
-                sessionAudit.setId(rs.getLong("session_log.id"));
+                sessionAudit.setId(rs.getLong(SESSION_ID));
                 sessionAudit.setSessionTm(rs.getTimestamp(SESSION_TM));
-                sessionAudit.setUser(UserDB.getUser(con, rs.getLong(USER_ID)));
+                sessionAudit.setUser(UserDB.getUser(rs));
                 outputList.add(sessionAudit);
 
 
@@ -144,9 +244,6 @@ public class SessionAuditDB {
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
-        finally {
-            DBUtils.closeConn(con);
-        }
 
         sortedSet.setItemList(outputList);
 
@@ -210,53 +307,58 @@ public class SessionAuditDB {
 
 
     /**
-     * insert new terminal history for user
+     * inserts terminal log chunks and their full text index rows in a single batch and transaction
      *
-     * @param sessionOutput output from session terminals
-     * @return session id
+     * @param con       DB connection
+     * @param chunkList terminal log chunks to insert
+     * @return true if the batch was committed
      */
-    public static void insertTerminalLog(SessionOutput sessionOutput) {
-        //get db connection
-        Connection con = DBUtils.getConn();
+    public static boolean insertTerminalLogChunks(Connection con, List<TerminalLogChunk> chunkList) {
 
+        boolean committed = false;
+        PreparedStatement stmt = null;
+        PreparedStatement textStmt = null;
         try {
-
-            insertTerminalLog(con, sessionOutput);
+            con.setAutoCommit(false);
+            stmt = con.prepareStatement("insert into terminal_log_chunk (session_id, instance_id, system_id, start_tm, end_tm, output_length, output, normalizer_state, line_prefix, screen) values(?,?,?,?,?,?,?,?,?,?)");
+            for (TerminalLogChunk chunk : chunkList) {
+                stmt.setLong(1, chunk.getSessionId());
+                stmt.setLong(2, chunk.getInstanceId());
+                stmt.setLong(3, chunk.getSystemId());
+                stmt.setTimestamp(4, new Timestamp(chunk.getStartTm()));
+                stmt.setTimestamp(5, new Timestamp(chunk.getEndTm()));
+                stmt.setInt(6, chunk.getOutput().length());
+                stmt.setBytes(7, TerminalLogCodec.encode(chunk));
+                stmt.setInt(8, chunk.getNormalizerState());
+                stmt.setString(9, chunk.getLinePrefix());
+                stmt.setString(10, chunk.getScreen());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            //full text index is updated in the same transaction
+            textStmt = TerminalLogSearchDB.addTextBatch(con, chunkList);
+            textStmt.executeBatch();
+            con.commit();
+            committed = true;
 
         } catch (Exception e) {
             log.error(e.toString(), e);
+            try {
+                con.rollback();
+            } catch (Exception ex) {
+                log.error(ex.toString(), ex);
+            }
         }
         finally {
-            DBUtils.closeConn(con);
-        }
-    }
-
-    /**
-     * insert new terminal history for user
-     *
-     * @param con           DB connection
-     * @param sessionOutput output from session terminals
-     * @return session id
-     */
-    public static void insertTerminalLog(Connection con, SessionOutput sessionOutput) {
-
-        try {
-
-            if (sessionOutput != null && sessionOutput.getSessionId() != null && sessionOutput.getInstanceId() != null && sessionOutput.getOutput() != null && !sessionOutput.getOutput().toString().equals("")) {
-                //insert
-                PreparedStatement stmt = con.prepareStatement("insert into terminal_log (session_id, instance_id, system_id, output) values(?,?,?,?)");
-                stmt.setLong(1, sessionOutput.getSessionId());
-                stmt.setLong(2, sessionOutput.getInstanceId());
-                stmt.setLong(3, sessionOutput.getId());
-                stmt.setString(4, sessionOutput.getOutput().toString());
-                stmt.execute();
-                DBUtils.closeStmt(stmt);
+            DBUtils.closeStmt(stmt);
+            DBUtils.closeStmt(textStmt);
+            try {
+                con.setAutoCommit(true);
+            } catch (Exception e) {
+                log.error(e.toString(), e);
             }
-
-        } catch (Exception e) {
-            log.error(e.toString(), e);
         }
-
+        return committed;
     }
 
 
@@ -297,41 +399,392 @@ public class SessionAuditDB {
     public static List<SessionOutput> getTerminalLogsForSession(Connection con, Long sessionId, Integer instanceId) {
 
         List<SessionOutput> outputList = new LinkedList<>();
+
+        SessionOutput sessionOutput = new SessionOutput();
+        sessionOutput.setSessionId(sessionId);
+        sessionOutput.setInstanceId(instanceId);
+
+        TerminalLogPage page = null;
+        while (page == null || !page.isDone()) {
+            page = getTerminalLogPage(con, sessionId, instanceId, page == null ? null : page.getCursor());
+            //apply backspaces carried over from the previous page
+            StringBuilder output = sessionOutput.getOutput();
+            int i = 0;
+            while (i < page.getOutput().length() && page.getOutput().charAt(i) == '\b') {
+                if (output.length() > 0) {
+                    output.setLength(output.length() - 1);
+                }
+                i++;
+            }
+            output.append(page.getOutput(), i, page.getOutput().length());
+        }
+        outputList.add(sessionOutput);
+
+        return outputList;
+    }
+
+    /**
+     * returns a page of terminal logs for a session terminal
+     *
+     * @param sessionId  session id
+     * @param instanceId instance id for terminal session
+     * @param cursor     cursor returned with the previous page or null for the first page
+     * @return page of session output
+     */
+    public static TerminalLogPage getTerminalLogPage(Long sessionId, Integer instanceId, String cursor) {
+
+        Connection con = null;
+        TerminalLogPage page = null;
+        try {
+            con = DBUtils.getConn();
+            page = getTerminalLogPage(con, sessionId, instanceId, cursor);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+        return page;
+    }
+
+    /**
+     * returns a page of terminal logs for a session terminal. Output logged as rows before chunked
+     * storage is read first, then the chunks. The cursor is the phase, time and id of the last
+     * row or chunk read along with the normalizer state, so escape sequences split across pages
+     * are removed
+     *
+     * @param con        DB connection
+     * @param sessionId  session id
+     * @param instanceId instance id for terminal session
+     * @param cursor     cursor returned with the previous page or null for the first page
+     * @return page of session output
+     */
+    public static TerminalLogPage getTerminalLogPage(Connection con, Long sessionId, Integer instanceId, String cursor) {
+
+        TerminalLogPage page = new TerminalLogPage();
+        page.setSessionId(sessionId);
+        page.setInstanceId(instanceId);
+
+        int phase = LEGACY_PHASE;
+        long cursorTm = 0;
+        long cursorId = 0;
+        int normalizerState = TerminalOutputNormalizer.STATE_TEXT;
+        if (StringUtils.isNotEmpty(cursor)) {
+            long[] values = parsePageCursor(cursor);
+            if (values != null) {
+                phase = (int) values[0];
+                cursorTm = values[1];
+                cursorId = values[2];
+                normalizerState = (int) values[3];
+            } else {
+                //a cursor that was not returned with a page starts over at the first page
+                log.warn("Invalid terminal log page cursor " + cursor);
+            }
+        }
+        TerminalOutputNormalizer normalizer = new TerminalOutputNormalizer(normalizerState);
+
+        StringBuilder outputBuilder = new StringBuilder();
         try {
-            PreparedStatement stmt = con.prepareStatement("select * from terminal_log where instance_id=? and session_id=? order by log_tm asc");
+            if (phase == LEGACY_PHASE) {
+                PreparedStatement stmt = con.prepareStatement("select _rowid_ as row_id, log_tm, output from terminal_log where instance_id=? and session_id=? and (log_tm > ? or (log_tm = ? and _rowid_ > ?)) order by log_tm asc, _rowid_ asc limit ?");
+                stmt.setLong(1, instanceId);
+                stmt.setLong(2, sessionId);
+                stmt.setTimestamp(3, new Timestamp(cursorTm));
+                stmt.setTimestamp(4, new Timestamp(cursorTm));
+                stmt.setLong(5, cursorId);
+                stmt.setInt(6, LEGACY_PAGE_ROWS);
+                ResultSet rs = stmt.executeQuery();
+                int rows = 0;
+                while (outputBuilder.length() < PAGE_SIZE && rs.next()) {
+                    normalizer.normalize(rs.getString("output"), outputBuilder);
+                    cursorTm = rs.getTimestamp("log_tm").getTime();
+                    cursorId = rs.getLong("row_id");
+                    rows++;
+                }
+                DBUtils.closeRs(rs);
+                DBUtils.closeStmt(stmt);
+
+                //rows are exhausted so the next page starts with the chunks
+                if (rows < LEGACY_PAGE_ROWS && outputBuilder.length() < PAGE_SIZE) {
+                    phase = CHUNK_PHASE;
+                    cursorTm = 0;
+                    cursorId = 0;
+                }
+            }
+
+            if (phase == CHUNK_PHASE && outputBuilder.length() < PAGE_SIZE) {
+                PreparedStatement stmt = con.prepareStatement("select id, start_tm, output from terminal_log_chunk where instance_id=? and session_id=? and (start_tm > ? or (start_tm = ? and id > ?)) order by start_tm asc, id asc limit ?");
+                stmt.setLong(1, instanceId);
+                stmt.setLong(2, sessionId);
+                stmt.setTimestamp(3, new Timestamp(cursorTm));
+                stmt.setTimestamp(4, new Timestamp(cursorTm));
+                stmt.setLong(5, cursorId);
+                stmt.setInt(6, CHUNK_PAGE_ROWS);
+                ResultSet rs = stmt.executeQuery();
+                int rows = 0;
+                while (outputBuilder.length() < PAGE_SIZE && rs.next()) {
+                    normalizer.normalize(TerminalLogCodec.decode(rs.getBytes("output"), new TerminalLogChunk()).getOutput(), outputBuilder);
+                    cursorTm = rs.getTimestamp("start_tm").getTime();
+                    cursorId = rs.getLong("id");
+                    rows++;
+                }
+                DBUtils.closeRs(rs);
+                DBUtils.closeStmt(stmt);
+
+                page.setDone(rows < CHUNK_PAGE_ROWS && outputBuilder.length() < PAGE_SIZE);
+            }
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+            page.setDone(true);
+        }
+
+        page.setOutput(outputBuilder.toString());
+        page.setCursor(phase + "-" + cursorTm + "-" + cursorId + "-" + normalizer.getState());
+
+        return page;
+    }
+
+    /**
+     * parses a page cursor into the phase, time, id and normalizer state
+     *
+     * @param cursor cursor returned with a page
+     * @return cursor values or null if the cursor is not valid
+     */
+    private static long[] parsePageCursor(String cursor) {
+        String[] values = cursor.split("-");
+        if (values.length < 3 || values.length > 4) {
+            return null;
+        }
+        try {
+            long[] parsed = new long[]{
+                    Integer.parseInt(values[0]),
+                    Long.parseLong(values[1]),
+                    Long.parseLong(values[2]),
+                    values.length > 3 ? Integer.parseInt(values[3]) : TerminalOutputNormalizer.STATE_TEXT};
+            if ((parsed[0] != LEGACY_PHASE && parsed[0] != CHUNK_PHASE) || parsed[1] < 0 || parsed[2] < 0
+                    || !TerminalOutputNormalizer.isValidState((int) parsed[3])) {
+                return null;
+            }
+            return parsed;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * returns a window of the replay for a session terminal
+     *
+     * @param sessionId  session id
+     * @param instanceId instance id for terminal session
+     * @param time       replay time
+     * @param duration   length of the window in milliseconds
+     * @return replay window
+     */
+    public static TerminalReplay getTerminalReplay(Long sessionId, Integer instanceId, long time, long duration) {
+
+        Connection con = null;
+        TerminalReplay replay = null;
+        try {
+            con = DBUtils.getConn();
+            replay = getTerminalReplay(con, sessionId, instanceId, time, duration);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+        return replay;
+    }
+
+    /**
+     * returns a window of the replay for a session terminal. The screen is the output before the
+     * replay time, rebuilt from the last lines of output and normalizer state stored with the chunk
+     * at or before that time and the output of that chunk up to the replay time, so seeking reads a
+     * single chunk. Chunks logged before the screen was stored start from the partial line of the
+     * chunk before. Output logged as rows before chunked storage is rebuilt from the rows just
+     * before the replay time. The frames are the output sent from the replay time until the end of
+     * the window
+     *
+     * @param con        DB connection
+     * @param sessionId  session id
+     * @param instanceId instance id for terminal session
+     * @param time       replay time
+     * @param duration   length of the window in milliseconds
+     * @return replay window
+     */
+    public static TerminalReplay getTerminalReplay(Connection con, Long sessionId, Integer instanceId, long time, long duration) {
+
+        TerminalReplay replay = new TerminalReplay();
+        replay.setSessionId(sessionId);
+        replay.setInstanceId(instanceId);
+
+        try {
+            //time range of the output for both legacy rows and chunks
+            long startTm = Long.MAX_VALUE;
+            long endTm = 0;
+            PreparedStatement stmt = con.prepareStatement("select min(log_tm) as start_tm, max(log_tm) as end_tm from terminal_log where instance_id=? and session_id=? union all select min(start_tm), max(end_tm) from terminal_log_chunk where instance_id=? and session_id=?");
             stmt.setLong(1, instanceId);
             stmt.setLong(2, sessionId);
+            stmt.setLong(3, instanceId);
+            stmt.setLong(4, sessionId);
             ResultSet rs = stmt.executeQuery();
-            StringBuilder outputBuilder = new StringBuilder("");
             while (rs.next()) {
-                outputBuilder.append(rs.getString("output"));
+                if (rs.getTimestamp("start_tm") != null) {
+                    startTm = Math.min(startTm, rs.getTimestamp("start_tm").getTime());
+                    endTm = Math.max(endTm, rs.getTimestamp("end_tm").getTime());
+                }
             }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
 
-            String output = outputBuilder.toString();
-            output = output.replaceAll("\\u0007|\u001B\\[K|\\]0;|\\[\\d\\d;\\d\\dm|\\[\\dm","");
-            while (output.contains("\b")) {
-                output = output.replaceFirst(".\b", "");
+            if (startTm > endTm) {
+                replay.setDone(true);
+                return replay;
+            }
+            time = Math.min(Math.max(time, startTm), endTm);
+            long windowEndTm = time + Math.max(1, duration);
+            replay.setStartTm(startTm);
+            replay.setEndTm(endTm);
+            replay.setTm(time);
+
+            //screen from the keyframe of the chunk at the replay time
+            TerminalOutputNormalizer normalizer = null;
+            StringBuilder screen = new StringBuilder();
+            stmt = con.prepareStatement("select start_tm, output, normalizer_state, line_prefix, screen from terminal_log_chunk where instance_id=? and session_id=? and start_tm <= ? order by start_tm desc, id desc limit 2");
+            stmt.setLong(1, instanceId);
+            stmt.setLong(2, sessionId);
+            stmt.setTimestamp(3, new Timestamp(time));
+            rs = stmt.executeQuery();
+            LinkedList<TerminalLogChunk> screenChunkList = new LinkedList<>();
+            while (rs.next()) {
+                TerminalLogChunk chunk = TerminalLogCodec.decode(rs.getBytes("output"), new TerminalLogChunk());
+                chunk.setStartTm(rs.getTimestamp("start_tm").getTime());
+                chunk.setNormalizerState(rs.getInt("normalizer_state"));
+                chunk.setLinePrefix(rs.getString("line_prefix"));
+                chunk.setScreen(rs.getString("screen"));
+                screenChunkList.addFirst(chunk);
+                if (chunk.getScreen() != null) {
+                    break;
+                }
             }
             DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
 
-            SessionOutput sessionOutput = new SessionOutput();
-            sessionOutput.setSessionId(sessionId);
-            sessionOutput.setInstanceId(instanceId);
-            sessionOutput.getOutput().append(output);
-
-            outputList.add(sessionOutput);
-
+            if (!screenChunkList.isEmpty()) {
+                TerminalLogChunk keyframe = screenChunkList.getFirst();
+                normalizer = new TerminalOutputNormalizer(keyframe.getNormalizerState());
+                if (keyframe.getScreen() != null) {
+                    //line break before the first line so backspaces stop at its start
+                    screen.append('\n').append(keyframe.getScreen());
+                } else if (keyframe.getLinePrefix() != null) {
+                    screen.append(keyframe.getLinePrefix());
+                }
+                for (TerminalLogChunk chunk : screenChunkList) {
+                    normalizer.normalize(chunk.getOutput(), 0, chunk.getOffsetForTime((int) (time - chunk.getStartTm())), screen);
+                }
+            } else {
+                //no chunks before the replay time so the screen is rebuilt from legacy rows
+                normalizer = new TerminalOutputNormalizer();
+                stmt = con.prepareStatement("select output from terminal_log where instance_id=? and session_id=? and log_tm < ? order by log_tm desc, _rowid_ desc limit ?");
+                stmt.setLong(1, instanceId);
+                stmt.setLong(2, sessionId);
+                stmt.setTimestamp(3, new Timestamp(time));
+                stmt.setInt(4, REPLAY_LEGACY_ROWS);
+                rs = stmt.executeQuery();
+                LinkedList<String> outputList = new LinkedList<>();
+                while (rs.next()) {
+                    outputList.addFirst(rs.getString("output"));
+                }
+                DBUtils.closeRs(rs);
+                DBUtils.closeStmt(stmt);
+                for (String output : outputList) {
+                    normalizer.normalize(output, screen);
+                }
+            }
+            replay.setScreen(TerminalOutputNormalizer.lastLines(screen, REPLAY_SCREEN_LINES));
 
+            //frames from legacy rows, which are all logged before any chunk
+            List<TerminalReplayFrame> frameList = replay.getFrameList();
+            long nextTm = windowEndTm;
+            stmt = con.prepareStatement("select log_tm, output from terminal_log where instance_id=? and session_id=? and log_tm >= ? and log_tm < ? order by log_tm asc, _rowid_ asc limit ?");
+            stmt.setLong(1, instanceId);
+            stmt.setLong(2, sessionId);
+            stmt.setTimestamp(3, new Timestamp(time));
+            stmt.setTimestamp(4, new Timestamp(windowEndTm));
+            stmt.setInt(5, REPLAY_MAX_FRAMES + 1);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                long logTm = rs.getTimestamp("log_tm").getTime();
+                if (frameList.size() >= REPLAY_MAX_FRAMES) {
+                    nextTm = logTm;
+                    break;
+                }
+                addFrame(frameList, normalizer, logTm, rs.getString("output"), 0, rs.getString("output").length());
+            }
             DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
 
+            //frames from the index of each chunk in the window
+            if (nextTm == windowEndTm) {
+                stmt = con.prepareStatement("select start_tm, output from terminal_log_chunk where instance_id=? and session_id=? and start_tm < ? and end_tm >= ? order by start_tm asc, id asc");
+                stmt.setLong(1, instanceId);
+                stmt.setLong(2, sessionId);
+                stmt.setTimestamp(3, new Timestamp(windowEndTm));
+                stmt.setTimestamp(4, new Timestamp(time));
+                rs = stmt.executeQuery();
+                while (nextTm == windowEndTm && rs.next()) {
+                    TerminalLogChunk chunk = TerminalLogCodec.decode(rs.getBytes("output"), new TerminalLogChunk());
+                    long chunkStartTm = rs.getTimestamp("start_tm").getTime();
+                    for (int i = 0; i < chunk.getIndexSize(); i++) {
+                        long logTm = chunkStartTm + chunk.getIndexTime(i);
+                        if (logTm < time) {
+                            continue;
+                        }
+                        if (logTm >= windowEndTm) {
+                            break;
+                        }
+                        if (frameList.size() >= REPLAY_MAX_FRAMES) {
+                            nextTm = logTm;
+                            break;
+                        }
+                        int end = i + 1 < chunk.getIndexSize() ? chunk.getIndexOffset(i + 1) : chunk.getOutput().length();
+                        addFrame(frameList, normalizer, logTm, chunk.getOutput(), chunk.getIndexOffset(i), end);
+                    }
+                }
+                DBUtils.closeRs(rs);
+                DBUtils.closeStmt(stmt);
+            }
 
-            DBUtils.closeStmt(stmt);
+            replay.setNextTm(nextTm);
+            replay.setDone(nextTm > endTm);
 
         } catch (Exception e) {
             log.error(e.toString(), e);
+            replay.setDone(true);
         }
-        return outputList;
 
+        return replay;
+    }
+
+    /**
+     * normalizes output and adds it as a frame if anything is left to display
+     *
+     * @param frameList  frames for the replay
+     * @param normalizer normalizer for the terminal
+     * @param logTm      time the output was sent
+     * @param output     terminal output
+     * @param start      start offset of the output
+     * @param end        end offset of the output
+     */
+    private static void addFrame(List<TerminalReplayFrame> frameList, TerminalOutputNormalizer normalizer, long logTm, CharSequence output, int start, int end) {
+        StringBuilder frameOutput = new StringBuilder();
+        normalizer.normalize(output, start, end, frameOutput);
+        if (frameOutput.length() > 0) {
+            frameList.add(new TerminalReplayFrame(logTm, frameOutput.toString()));
+        }
     }
 
     /**
@@ -345,11 +798,12 @@ public class SessionAuditDB {
 
         List<HostSystem> hostSystemList = new ArrayList<>();
         try {
-            PreparedStatement stmt = con.prepareStatement("select distinct instance_id, system_id from terminal_log where session_id=?");
+            PreparedStatement stmt = con.prepareStatement("select t.instance_id, system.* from (select instance_id, system_id from terminal_log where session_id=? union select instance_id, system_id from terminal_log_chunk where session_id=?) t, system where system.id=t.system_id order by t.instance_id asc");
             stmt.setLong(1, sessionId);
+            stmt.setLong(2, sessionId);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                HostSystem hostSystem = SystemDB.getSystem(con, rs.getLong("system_id"));
+                HostSystem hostSystem = SystemDB.getSystem(rs);
                 hostSystem.setInstanceId(rs.getInt("instance_id"));
                 hostSystemList.add(hostSystem);
             }
@@ -374,20 +828,41 @@ public class SessionAuditDB {
         //get db connection
         Connection con = null;
         SessionAudit sessionAudit = new SessionAudit();
+        try {
+            con = DBUtils.getConn();
+            sessionAudit = getSessionsTerminals(con, sessionId);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+        return sessionAudit;
+    }
+
+    /**
+     * returns a list of terminal sessions for session id
+     *
+     * @param con       DB connection
+     * @param sessionId session id
+     * @return terminal sessions with host information
+     */
+    public static SessionAudit getSessionsTerminals(Connection con, Long sessionId) {
+        SessionAudit sessionAudit = new SessionAudit();
 
 
-        String sql = "select * from session_log, users where users.id= session_log.user_id and session_log.id = ? ";
+        String sql = "select session_log.id as " + SESSION_ID + ", session_log.session_tm, users.* from session_log, users where users.id= session_log.user_id and session_log.id = ? ";
         try {
 
-            con = DBUtils.getConn();
             PreparedStatement stmt = con.prepareStatement(sql);
             stmt.setLong(1, sessionId);
 
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                sessionAudit.setId(rs.getLong("session_log.id"));
+                sessionAudit.setId(rs.getLong(SESSION_ID));
                 sessionAudit.setSessionTm(rs.getTimestamp(SESSION_TM));
-                sessionAudit.setUser(UserDB.getUser(con, rs.getLong(USER_ID)));
+                sessionAudit.setUser(UserDB.getUser(rs));
                 sessionAudit.setHostSystemList(getHostSystemsForSession(con, sessionId));
 
 
@@ -399,9 +874,6 @@ public class SessionAuditDB {
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
-        finally {
-            DBUtils.closeConn(con);
-        }
 
         return sessionAudit;
 
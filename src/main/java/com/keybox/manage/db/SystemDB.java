@@ -23,6 +23,7 @@ import org.apache.commons.lang3.StringUtils;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import org.slf4j.Logger;
@@ -60,14 +61,10 @@ public class SystemDB {
 	public static SortedSet getUserSystemSet(SortedSet sortedSet, Long userId) {
 		List<HostSystem> hostSystemList = new ArrayList<>();
 
-		String orderBy = "";
-		if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-			orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
-		}
 		String sql = "select * from system where id in (select distinct system_id from  system_map m, user_map um where m.profile_id=um.profile_id and um.user_id=? ";
 		//if profile id exists add to statement
 		sql += StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) ? " and um.profile_id=? " : "";
-		sql += ") " + orderBy;
+		sql += ") " + DBUtils.getSeekClause(sortedSet, "id") + DBUtils.getOrderBy(sortedSet, "id");
 
 		//get user for auth token
 		Connection con = null;
@@ -79,18 +76,12 @@ public class SystemDB {
 			if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))) {
 				stmt.setLong(2, Long.parseLong(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
 			}
+			DBUtils.setSeekParams(stmt, StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) ? 3 : 2, sortedSet);
 
 			ResultSet rs = stmt.executeQuery();
 
-			while (rs.next()) {
-				HostSystem hostSystem = new HostSystem();
-				hostSystem.setId(rs.getLong("id"));
-				hostSystem.setDisplayNm(rs.getString(DISPLAY_NM));
-				hostSystem.setUser(rs.getString("user"));
-				hostSystem.setHost(rs.getString("host"));
-				hostSystem.setPort(rs.getInt("port"));
-				hostSystem.setAuthorizedKeys(rs.getString(AUTHORIZED_KEYS));
-				hostSystem.setStatusCd(rs.getString(STATUS_CD));
+			while (DBUtils.nextPageRow(rs, sortedSet, "id", hostSystemList.size())) {
+				HostSystem hostSystem = getSystem(rs);
 				hostSystemList.add(hostSystem);
 			}
 			DBUtils.closeRs(rs);
@@ -118,33 +109,24 @@ public class SystemDB {
 	public static SortedSet getSystemSet(SortedSet sortedSet) {
 		List<HostSystem> hostSystemList = new ArrayList<>();
 
-		String orderBy = "";
-		if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-			orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
-		}
 		String sql = "select * from  system s ";
 		//if profile id exists add to statement
-		sql += StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) ? ",system_map m where s.id=m.system_id and m.profile_id=?" : "";
-		sql += orderBy;
+		sql += StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)) ? ",system_map m where s.id=m.system_id and m.profile_id=? " : "where true ";
+		sql += DBUtils.getSeekClause(sortedSet, "s.id") + DBUtils.getOrderBy(sortedSet, "s.id");
 
 		Connection con = null;
 		try {
 			con = DBUtils.getConn();
 			PreparedStatement stmt = con.prepareStatement(sql);
+			int i = 1;
 			if (StringUtils.isNotEmpty(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID))) {
-				stmt.setLong(1, Long.parseLong(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
+				stmt.setLong(i++, Long.parseLong(sortedSet.getFilterMap().get(FILTER_BY_PROFILE_ID)));
 			}
+			DBUtils.setSeekParams(stmt, i, sortedSet);
 			ResultSet rs = stmt.executeQuery();
 
-			while (rs.next()) {
-				HostSystem hostSystem = new HostSystem();
-				hostSystem.setId(rs.getLong("id"));
-				hostSystem.setDisplayNm(rs.getString(DISPLAY_NM));
-				hostSystem.setUser(rs.getString("user"));
-				hostSystem.setHost(rs.getString("host"));
-				hostSystem.setPort(rs.getInt("port"));
-				hostSystem.setAuthorizedKeys(rs.getString(AUTHORIZED_KEYS));
-				hostSystem.setStatusCd(rs.getString(STATUS_CD));
+			while (DBUtils.nextPageRow(rs, sortedSet, "id", hostSystemList.size())) {
+				HostSystem hostSystem = getSystem(rs);
 				hostSystemList.add(hostSystem);
 			}
 			DBUtils.closeRs(rs);
@@ -211,14 +193,7 @@ public class SystemDB {
 			ResultSet rs = stmt.executeQuery();
 
 			while (rs.next()) {
-				hostSystem = new HostSystem();
-				hostSystem.setId(rs.getLong("id"));
-				hostSystem.setDisplayNm(rs.getString(DISPLAY_NM));
-				hostSystem.setUser(rs.getString("user"));
-				hostSystem.setHost(rs.getString("host"));
-				hostSystem.setPort(rs.getInt("port"));
-				hostSystem.setAuthorizedKeys(rs.getString(AUTHORIZED_KEYS));
-				hostSystem.setStatusCd(rs.getString(STATUS_CD));
+				hostSystem = getSystem(rs);
 			}
 			DBUtils.closeRs(rs);
 			DBUtils.closeStmt(stmt);
@@ -232,6 +207,26 @@ public class SystemDB {
 	}
 
 
+	/**
+	 * returns the host system for the current row of a query that selects the system columns,
+	 * shared by the queries that join systems to other tables
+	 *
+	 * @param rs result set on the current row
+	 * @return host system
+	 */
+	public static HostSystem getSystem(ResultSet rs) throws SQLException {
+		HostSystem hostSystem = new HostSystem();
+		hostSystem.setId(rs.getLong("id"));
+		hostSystem.setDisplayNm(rs.getString(DISPLAY_NM));
+		hostSystem.setUser(rs.getString("user"));
+		hostSystem.setHost(rs.getString("host"));
+		hostSystem.setPort(rs.getInt("port"));
+		hostSystem.setAuthorizedKeys(rs.getString(AUTHORIZED_KEYS));
+		hostSystem.setStatusCd(rs.getString(STATUS_CD));
+		return hostSystem;
+	}
+
+
 	/**
 	 * inserts host system into DB
 	 *
@@ -377,14 +372,7 @@ public class SystemDB {
 			ResultSet rs = stmt.executeQuery();
 
 			while (rs.next()) {
-				HostSystem hostSystem = new HostSystem();
-				hostSystem.setId(rs.getLong("id"));
-				hostSystem.setDisplayNm(rs.getString(DISPLAY_NM));
-				hostSystem.setUser(rs.getString("user"));
-				hostSystem.setHost(rs.getString("host"));
-				hostSystem.setPort(rs.getInt("port"));
-				hostSystem.setAuthorizedKeys(rs.getString(AUTHORIZED_KEYS));
-				hostSystem.setStatusCd(rs.getString(STATUS_CD));
+				HostSystem hostSystem = getSystem(rs);
 				hostSystemList.add(hostSystem);
 			}
 			DBUtils.closeRs(rs);
@@ -38,6 +38,8 @@ import org.slf4j.LoggerFactory;
 public class SystemStatusDB {
 
     public static final String STATUS_CD = "status_cd";
+    //key placement status selected with the system columns, which have their own status
+    private static final String STATUS_STATUS_CD = "status_status_cd";
     private static Logger log = LoggerFactory.getLogger(SystemStatusDB.class);
 
     private SystemStatusDB() {
@@ -218,18 +220,18 @@ public class SystemStatusDB {
      * @param con DB connection object
      * @param userId user id
      */
-    private static List<HostSystem> getAllSystemStatus(Connection con, Long userId) {
+    public static List<HostSystem> getAllSystemStatus(Connection con, Long userId) {
 
         List<HostSystem> hostSystemList = new ArrayList<>();
         try {
 
-            PreparedStatement stmt = con.prepareStatement("select * from status where user_id=? order by id asc");
+            PreparedStatement stmt = con.prepareStatement("select system.*, status.status_cd as " + STATUS_STATUS_CD + " from status, system where status.id=system.id and status.user_id=? order by system.id asc");
             stmt.setLong(1, userId);
             ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
-                HostSystem hostSystem = SystemDB.getSystem(con, rs.getLong("id"));
-                hostSystem.setStatusCd(rs.getString(STATUS_CD));
+                HostSystem hostSystem = SystemDB.getSystem(rs);
+                hostSystem.setStatusCd(rs.getString(STATUS_STATUS_CD));
                 hostSystemList.add(hostSystem);
             }
             DBUtils.closeRs(rs);
@@ -255,15 +257,79 @@ public class SystemStatusDB {
         HostSystem hostSystem = null;
         try {
             con = DBUtils.getConn();
+            hostSystem = getSystemStatus(con, systemId, userId);
 
-            PreparedStatement stmt = con.prepareStatement("select * from status where id=? and user_id=?");
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+        return hostSystem;
+    }
+
+    /**
+     * returns key placement status of system
+     *
+     * @param con DB connection
+     * @param systemId system id
+     * @param userId user id
+     */
+    public static HostSystem getSystemStatus(Connection con, Long systemId, Long userId) {
+
+        HostSystem hostSystem = null;
+        try {
+
+            PreparedStatement stmt = con.prepareStatement("select system.*, status.status_cd as " + STATUS_STATUS_CD + " from status, system where status.id=system.id and status.id=? and status.user_id=?");
             stmt.setLong(1, systemId);
             stmt.setLong(2, userId);
             ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
-                hostSystem = SystemDB.getSystem(con, rs.getLong("id"));
-                hostSystem.setStatusCd(rs.getString(STATUS_CD));
+                hostSystem = SystemDB.getSystem(rs);
+                hostSystem.setStatusCd(rs.getString(STATUS_STATUS_CD));
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        return hostSystem;
+
+
+    }
+
+
+    /**
+     * returns all systems for the user with one of the given statuses
+     *
+     * @param userId    user id
+     * @param statusCds status codes of systems to return
+     * @return host systems
+     */
+    public static List<HostSystem> getSystemsByStatus(Long userId, List<String> statusCds) {
+
+        List<HostSystem> hostSystemList = new ArrayList<>();
+        if (statusCds == null || statusCds.isEmpty()) {
+            return hostSystemList;
+        }
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            String sql = "select system.*, status.status_cd as " + STATUS_STATUS_CD + " from status, system where status.id=system.id and status.user_id=? and status.status_cd in (" + StringUtils.repeat("?", ",", statusCds.size()) + ") order by system.id asc";
+            PreparedStatement stmt = con.prepareStatement(sql);
+            int i = 1;
+            stmt.setLong(i++, userId);
+            for (String statusCd : statusCds) {
+                stmt.setString(i++, statusCd);
+            }
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                HostSystem hostSystem = SystemDB.getSystem(rs);
+                hostSystem.setStatusCd(rs.getString(STATUS_STATUS_CD));
+                hostSystemList.add(hostSystem);
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
@@ -274,8 +340,7 @@ public class SystemStatusDB {
         finally {
             DBUtils.closeConn(con);
         }
-        return hostSystem;
-
+        return hostSystemList;
 
     }
 
@@ -292,16 +357,38 @@ public class SystemStatusDB {
         Connection con = null;
         try {
             con = DBUtils.getConn();
-            PreparedStatement stmt = con.prepareStatement("select * from status where (status_cd like ? or status_cd like ? or status_cd like ?) and user_id=? order by id asc");
-            stmt.setString(1,HostSystem.INITIAL_STATUS);
-            stmt.setString(2,HostSystem.AUTH_FAIL_STATUS);
-            stmt.setString(3,HostSystem.PUBLIC_KEY_FAIL_STATUS);
-            stmt.setLong(4, userId);
+            hostSystem = getNextPendingSystem(con, userId);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+        return hostSystem;
+    }
+
+    /**
+     * returns the first system that authorized keys has not been tried
+     *
+     * @param con DB connection
+     * @param userId user id
+     * @return hostSystem systems for authorized_keys replacement
+     */
+    public static HostSystem getNextPendingSystem(Connection con, Long userId) {
+
+        HostSystem hostSystem = null;
+        try {
+            PreparedStatement stmt = con.prepareStatement("select system.*, status.status_cd as " + STATUS_STATUS_CD + " from status, system where status.id=system.id and status.user_id=? and status.status_cd in (?,?,?) order by system.id asc limit 1");
+            stmt.setLong(1, userId);
+            stmt.setString(2,HostSystem.INITIAL_STATUS);
+            stmt.setString(3,HostSystem.AUTH_FAIL_STATUS);
+            stmt.setString(4,HostSystem.PUBLIC_KEY_FAIL_STATUS);
             ResultSet rs = stmt.executeQuery();
 
             if (rs.next()) {
-                hostSystem = SystemDB.getSystem(con, rs.getLong("id"));
-                hostSystem.setStatusCd(rs.getString(STATUS_CD));
+                hostSystem = SystemDB.getSystem(rs);
+                hostSystem.setStatusCd(rs.getString(STATUS_STATUS_CD));
             }
             DBUtils.closeRs(rs);
             DBUtils.closeStmt(stmt);
@@ -309,9 +396,6 @@ public class SystemStatusDB {
         } catch (Exception e) {
             log.error(e.toString(), e);
         }
-        finally {
-            DBUtils.closeConn(con);
-        }
         return hostSystem;
 
     }
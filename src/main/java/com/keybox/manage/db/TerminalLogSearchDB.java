@@ -0,0 +1,377 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.db;
+
+import com.keybox.manage.model.HostSystem;
+import com.keybox.manage.model.TerminalLogChunk;
+import com.keybox.manage.model.TerminalLogHit;
+import com.keybox.manage.util.DBUtils;
+import com.keybox.manage.util.TerminalLogCodec;
+import com.keybox.manage.util.TerminalOutputNormalizer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DB class for the full text index over normalized terminal output. Each chunk of output is
+ * indexed as one row of text when it is written, output logged as rows before chunked storage is
+ * indexed in the background
+ */
+public class TerminalLogSearchDB {
+
+    private static Logger log = LoggerFactory.getLogger(TerminalLogSearchDB.class);
+
+    //chars that separate words in the H2 full text index
+    private static final String WORD_DELIMITERS = " \t\n\r\f+\"*%&/()=?'!,.;:-_#@|^~`{}[]<>\b";
+    //max chars of legacy output indexed in one row of text
+    private static final int MAX_TEXT_LENGTH = 65536;
+    private static final int MAX_HITS = 100;
+    //chars of output shown before and after a match
+    private static final int SNIPPET_CONTEXT = 60;
+
+    private TerminalLogSearchDB() {
+    }
+
+    /**
+     * adds the normalized output of terminal log chunks to the insert batch for the full text
+     * index, so the index is updated in the same transaction as the chunks
+     *
+     * @param con       DB connection
+     * @param chunkList terminal log chunks
+     * @return statement with the batch added
+     */
+    public static PreparedStatement addTextBatch(Connection con, List<TerminalLogChunk> chunkList) throws Exception {
+
+        PreparedStatement stmt = con.prepareStatement("insert into terminal_log_text (session_id, instance_id, system_id, start_tm, end_tm, output) values(?,?,?,?,?,?)");
+        for (TerminalLogChunk chunk : chunkList) {
+            setText(stmt, chunk.getSessionId(), chunk.getInstanceId(), chunk.getSystemId(), chunk.getStartTm(), chunk.getEndTm(), getText(chunk));
+            stmt.addBatch();
+        }
+        return stmt;
+    }
+
+    /**
+     * indexes chunks and legacy output written before the full text index was added
+     *
+     * @param con   DB connection
+     * @param limit max number of chunks or legacy session terminals to index
+     * @return number of chunks or session terminals indexed
+     */
+    public static int indexBacklog(Connection con, int limit) {
+
+        int count = 0;
+        try {
+            List<TerminalLogChunk> chunkList = new ArrayList<>();
+            PreparedStatement stmt = con.prepareStatement("select * from terminal_log_chunk c where not exists (select 1 from terminal_log_text t where t.session_id=c.session_id and t.instance_id=c.instance_id and t.start_tm=c.start_tm) order by c.id asc limit ?");
+            stmt.setInt(1, limit);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                TerminalLogChunk chunk = TerminalLogCodec.decode(rs.getBytes("output"), new TerminalLogChunk());
+                chunk.setSessionId(rs.getLong("session_id"));
+                chunk.setInstanceId(rs.getInt("instance_id"));
+                chunk.setSystemId(rs.getLong("system_id"));
+                chunk.setStartTm(rs.getTimestamp("start_tm").getTime());
+                chunk.setEndTm(rs.getTimestamp("end_tm").getTime());
+                chunk.setNormalizerState(rs.getInt("normalizer_state"));
+                chunkList.add(chunk);
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+
+            if (!chunkList.isEmpty()) {
+                stmt = addTextBatch(con, chunkList);
+                stmt.executeBatch();
+                DBUtils.closeStmt(stmt);
+                count += chunkList.size();
+            }
+
+            if (count < limit) {
+                //session terminals with legacy output are indexed when the first row has no text row
+                stmt = con.prepareStatement("select * from (select session_id, instance_id, max(system_id) as system_id, min(log_tm) as start_tm from terminal_log group by session_id, instance_id) l where not exists (select 1 from terminal_log_text t where t.session_id=l.session_id and t.instance_id=l.instance_id and t.start_tm=l.start_tm) limit ?");
+                stmt.setInt(1, limit - count);
+                rs = stmt.executeQuery();
+                while (rs.next()) {
+                    indexLegacyOutput(con, rs.getLong("session_id"), rs.getInt("instance_id"), rs.getLong("system_id"));
+                    count++;
+                }
+                DBUtils.closeRs(rs);
+                DBUtils.closeStmt(stmt);
+            }
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        return count;
+    }
+
+    /**
+     * indexes the legacy output of a session terminal in a single transaction
+     *
+     * @param con        DB connection
+     * @param sessionId  session id
+     * @param instanceId instance id for terminal session
+     * @param systemId   system id
+     */
+    private static void indexLegacyOutput(Connection con, Long sessionId, Integer instanceId, Long systemId) throws Exception {
+
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            PreparedStatement stmt = con.prepareStatement("select log_tm, output from terminal_log where session_id=? and instance_id=? order by log_tm asc, _rowid_ asc");
+            stmt.setLong(1, sessionId);
+            stmt.setInt(2, instanceId);
+            ResultSet rs = stmt.executeQuery();
+            TerminalOutputNormalizer normalizer = new TerminalOutputNormalizer();
+            StringBuilder text = new StringBuilder();
+            long startTm = 0;
+            long endTm = 0;
+            boolean first = true;
+            while (rs.next()) {
+                long logTm = rs.getTimestamp("log_tm").getTime();
+                if (first) {
+                    startTm = logTm;
+                    first = false;
+                } else if (text.length() >= MAX_TEXT_LENGTH) {
+                    insertText(con, sessionId, instanceId, systemId, startTm, endTm, text.toString());
+                    text.setLength(0);
+                    startTm = logTm;
+                }
+                normalizer.normalize(rs.getString("output"), text);
+                endTm = logTm;
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+            if (!first) {
+                insertText(con, sessionId, instanceId, systemId, startTm, endTm, text.toString());
+            }
+            con.commit();
+
+        } catch (Exception e) {
+            con.rollback();
+            throw e;
+        }
+        finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void insertText(Connection con, Long sessionId, Integer instanceId, Long systemId, long startTm, long endTm, String text) throws Exception {
+        PreparedStatement stmt = con.prepareStatement("insert into terminal_log_text (session_id, instance_id, system_id, start_tm, end_tm, output) values(?,?,?,?,?,?)");
+        setText(stmt, sessionId, instanceId, systemId, startTm, endTm, text);
+        stmt.execute();
+        DBUtils.closeStmt(stmt);
+    }
+
+    private static void setText(PreparedStatement stmt, Long sessionId, Integer instanceId, Long systemId, long startTm, long endTm, String text) throws Exception {
+        stmt.setLong(1, sessionId);
+        stmt.setInt(2, instanceId);
+        stmt.setLong(3, systemId);
+        stmt.setTimestamp(4, new Timestamp(startTm));
+        stmt.setTimestamp(5, new Timestamp(endTm));
+        stmt.setString(6, text);
+    }
+
+    /**
+     * returns the normalized output of a chunk, without backspaces carried past its start
+     *
+     * @param chunk terminal log chunk
+     * @return normalized output
+     */
+    private static String getText(TerminalLogChunk chunk) {
+        StringBuilder text = new StringBuilder();
+        new TerminalOutputNormalizer(chunk.getNormalizerState()).normalize(chunk.getOutput(), text);
+        int start = 0;
+        while (start < text.length() && text.charAt(start) == '\b') {
+            start++;
+        }
+        return text.substring(start);
+    }
+
+    /**
+     * searches normalized terminal output for sessions. All words in the search must match
+     *
+     * @param search   words to search for
+     * @param userId   user id to filter by or null
+     * @param systemId system id to filter by or null
+     * @return matching output for each session terminal, most recent first
+     */
+    public static List<TerminalLogHit> search(String search, Long userId, Long systemId) {
+
+        List<TerminalLogHit> hitList = new ArrayList<>();
+        if (StringUtils.isBlank(search)) {
+            return hitList;
+        }
+
+        //the chunk for the text is selected with it so the hit time is found without a query per hit
+        String sql = "select t.session_id, t.instance_id, t.start_tm, t.end_tm, t.output, s.session_tm, u.username, sys.id as system_id, sys.display_nm, sys.user, sys.host, sys.port"
+                + ", (select c.output from terminal_log_chunk c where c.session_id=t.session_id and c.instance_id=t.instance_id and c.start_tm=t.start_tm order by c.id limit 1) as chunk_output"
+                + ", (select c.normalizer_state from terminal_log_chunk c where c.session_id=t.session_id and c.instance_id=t.instance_id and c.start_tm=t.start_tm order by c.id limit 1) as chunk_normalizer_state"
+                + " from FT_SEARCH_DATA(?, 0, 0) ft, terminal_log_text t, session_log s, users u, system sys"
+                + " where ft.table='TERMINAL_LOG_TEXT' and t.id=ft.keys[0] and s.id=t.session_id and u.id=s.user_id and sys.id=t.system_id";
+        sql += userId != null ? " and s.user_id=?" : "";
+        sql += systemId != null ? " and t.system_id=?" : "";
+        sql += " order by t.start_tm desc limit ?";
+
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            PreparedStatement stmt = con.prepareStatement(sql);
+            int i = 1;
+            stmt.setString(i++, search);
+            if (userId != null) {
+                stmt.setLong(i++, userId);
+            }
+            if (systemId != null) {
+                stmt.setLong(i++, systemId);
+            }
+            stmt.setInt(i, MAX_HITS);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                TerminalLogHit hit = new TerminalLogHit();
+                hit.setSessionId(rs.getLong("session_id"));
+                hit.setInstanceId(rs.getInt("instance_id"));
+                hit.setSessionTm(rs.getTimestamp("session_tm"));
+                hit.setUsername(rs.getString("username"));
+                HostSystem hostSystem = new HostSystem();
+                hostSystem.setId(rs.getLong("system_id"));
+                hostSystem.setDisplayNm(rs.getString("display_nm"));
+                hostSystem.setUser(rs.getString("user"));
+                hostSystem.setHost(rs.getString("host"));
+                hostSystem.setPort(rs.getInt("port"));
+                hit.setHostSystem(hostSystem);
+
+                String text = rs.getString("output");
+                String term = getMatchTerm(text, search);
+                int offset = StringUtils.indexOfIgnoreCase(text, term);
+                hit.setSnippet(getSnippet(text, offset, term.length()));
+                hit.setHitTm(new Timestamp(getHitTime(con, hit.getSessionId(), hit.getInstanceId(), rs.getTimestamp("start_tm").getTime(), rs.getTimestamp("end_tm").getTime(),
+                        rs.getBytes("chunk_output"), rs.getInt("chunk_normalizer_state"), term)));
+                hitList.add(hit);
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+        finally {
+            DBUtils.closeConn(con);
+        }
+        return hitList;
+    }
+
+    /**
+     * returns the search as a phrase if it is in the output, otherwise the longest word
+     *
+     * @param text   normalized output
+     * @param search words searched for
+     * @return term to locate in the output
+     */
+    private static String getMatchTerm(String text, String search) {
+        String term = search.trim();
+        if (StringUtils.indexOfIgnoreCase(text, term) < 0) {
+            String longestWord = term;
+            String longestMatch = null;
+            for (String word : StringUtils.split(search, WORD_DELIMITERS)) {
+                if (longestWord.equals(term) || word.length() > longestWord.length()) {
+                    longestWord = word;
+                }
+                if (StringUtils.indexOfIgnoreCase(text, word) >= 0 && (longestMatch == null || word.length() > longestMatch.length())) {
+                    longestMatch = word;
+                }
+            }
+            term = longestMatch != null ? longestMatch : longestWord;
+        }
+        return term;
+    }
+
+    /**
+     * returns the output around a match on a single line
+     *
+     * @param text   normalized output
+     * @param offset offset of the match
+     * @param length length of the match
+     * @return output around the match
+     */
+    private static String getSnippet(String text, int offset, int length) {
+        if (offset < 0) {
+            offset = 0;
+            length = 0;
+        }
+        int start = Math.max(0, offset - SNIPPET_CONTEXT);
+        int end = Math.min(text.length(), offset + length + SNIPPET_CONTEXT);
+        String snippet = text.substring(start, end).replaceAll("[\\r\\n\\x08]+", " ").trim();
+        return (start > 0 ? "..." : "") + snippet + (end < text.length() ? "..." : "");
+    }
+
+    /**
+     * returns the time of the output where a match first appears, from the time index of the
+     * chunk or from the legacy rows for the text
+     *
+     * @param con             DB connection
+     * @param sessionId       session id
+     * @param instanceId      instance id for terminal session
+     * @param startTm         start time of the text
+     * @param endTm           end time of the text
+     * @param chunkOutput     compressed output of the chunk for the text, null for legacy output
+     * @param normalizerState normalizer state at the start of the chunk
+     * @param term            term to locate
+     * @return time of the matching output or the start time if not found
+     */
+    private static long getHitTime(Connection con, Long sessionId, Integer instanceId, long startTm, long endTm, byte[] chunkOutput, int normalizerState, String term) throws Exception {
+
+        long hitTm = -1;
+        StringBuilder text = new StringBuilder();
+        if (chunkOutput != null) {
+            TerminalLogChunk chunk = TerminalLogCodec.decode(chunkOutput, new TerminalLogChunk());
+            TerminalOutputNormalizer normalizer = new TerminalOutputNormalizer(normalizerState);
+            for (int i = 0; hitTm < 0 && i < chunk.getIndexSize(); i++) {
+                int from = Math.max(0, text.length() - term.length());
+                int end = i + 1 < chunk.getIndexSize() ? chunk.getIndexOffset(i + 1) : chunk.getOutput().length();
+                normalizer.normalize(chunk.getOutput(), chunk.getIndexOffset(i), end, text);
+                if (StringUtils.indexOfIgnoreCase(text, term, from) >= 0) {
+                    hitTm = startTm + chunk.getIndexTime(i);
+                }
+            }
+        } else {
+            PreparedStatement stmt = con.prepareStatement("select log_tm, output from terminal_log where session_id=? and instance_id=? and log_tm >= ? and log_tm <= ? order by log_tm asc, _rowid_ asc");
+            stmt.setLong(1, sessionId);
+            stmt.setInt(2, instanceId);
+            stmt.setTimestamp(3, new Timestamp(startTm));
+            stmt.setTimestamp(4, new Timestamp(endTm));
+            ResultSet rs = stmt.executeQuery();
+            TerminalOutputNormalizer normalizer = new TerminalOutputNormalizer();
+            while (hitTm < 0 && rs.next()) {
+                int from = Math.max(0, text.length() - term.length());
+                normalizer.normalize(rs.getString("output"), text);
+                if (StringUtils.indexOfIgnoreCase(text, term, from) >= 0) {
+                    hitTm = rs.getTimestamp("log_tm").getTime();
+                }
+            }
+            DBUtils.closeRs(rs);
+            DBUtils.closeStmt(stmt);
+        }
+
+        return hitTm < 0 ? startTm : hitTm;
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.commons.lang3.StringUtils;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import org.slf4j.Logger;
@@ -58,27 +59,16 @@ public class UserDB {
         ArrayList<User> userList = new ArrayList<>();
 
 
-        String orderBy = "";
-        if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-            orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
-        }
-        String sql = "select * from  users where enabled=true " + orderBy;
+        String sql = "select * from  users where enabled=true " + DBUtils.getSeekClause(sortedSet, "id") + DBUtils.getOrderBy(sortedSet, "id");
 
         Connection con = null;
         try {
             con = DBUtils.getConn();
             PreparedStatement stmt = con.prepareStatement(sql);
+            DBUtils.setSeekParams(stmt, 1, sortedSet);
             ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                User user = new User();
-                user.setId(rs.getLong("id"));
-                user.setFirstNm(rs.getString(FIRST_NM));
-                user.setLastNm(rs.getString(LAST_NM));
-                user.setEmail(rs.getString(EMAIL));
-                user.setUsername(rs.getString(USERNAME));
-                user.setPassword(rs.getString(PASSWORD));
-                user.setAuthType(rs.getString(AUTH_TYPE));
-                user.setUserType(rs.getString(USER_TYPE));
+            while (DBUtils.nextPageRow(rs, sortedSet, "id", userList.size())) {
+                User user = getUser(rs);
                 userList.add(user);
 
             }
@@ -106,27 +96,16 @@ public class UserDB {
         ArrayList<User> userList = new ArrayList<>();
 
 
-        String orderBy = "";
-        if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
-            orderBy = "order by " + sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection();
-        }
-        String sql = "select * from  users where enabled=true and user_type like '" + User.ADMINISTRATOR + "' " + orderBy;
+        String sql = "select * from  users where enabled=true and user_type like '" + User.ADMINISTRATOR + "' " + DBUtils.getSeekClause(sortedSet, "id") + DBUtils.getOrderBy(sortedSet, "id");
 
         Connection con = null;
         try {
             con = DBUtils.getConn();
             PreparedStatement stmt = con.prepareStatement(sql);
+            DBUtils.setSeekParams(stmt, 1, sortedSet);
             ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                User user = new User();
-                user.setId(rs.getLong("id"));
-                user.setFirstNm(rs.getString(FIRST_NM));
-                user.setLastNm(rs.getString(LAST_NM));
-                user.setEmail(rs.getString(EMAIL));
-                user.setUsername(rs.getString(USERNAME));
-                user.setPassword(rs.getString(PASSWORD));
-                user.setAuthType(rs.getString(AUTH_TYPE));
-                user.setUserType(rs.getString(USER_TYPE));
+            while (DBUtils.nextPageRow(rs, sortedSet, "id", userList.size())) {
+                User user = getUser(rs);
                 userList.add(user);
 
             }
@@ -184,15 +163,7 @@ public class UserDB {
             ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
-                user = new User();
-                user.setId(rs.getLong("id"));
-                user.setFirstNm(rs.getString(FIRST_NM));
-                user.setLastNm(rs.getString(LAST_NM));
-                user.setEmail(rs.getString(EMAIL));
-                user.setUsername(rs.getString(USERNAME));
-                user.setPassword(rs.getString(PASSWORD));
-                user.setAuthType(rs.getString(AUTH_TYPE));
-                user.setUserType(rs.getString(USER_TYPE));
+                user = getUser(rs);
                 user.setSalt(rs.getString("salt"));
                 user.setProfileList(UserProfileDB.getProfilesByUser(con, userId));
             }
@@ -206,6 +177,26 @@ public class UserDB {
         return user;
     }
 
+    /**
+     * returns the user for the current row of a query that selects the user columns, shared by
+     * the queries that join users to other tables
+     *
+     * @param rs result set on the current row
+     * @return user
+     */
+    public static User getUser(ResultSet rs) throws SQLException {
+        User user = new User();
+        user.setId(rs.getLong("id"));
+        user.setFirstNm(rs.getString(FIRST_NM));
+        user.setLastNm(rs.getString(LAST_NM));
+        user.setEmail(rs.getString(EMAIL));
+        user.setUsername(rs.getString(USERNAME));
+        user.setPassword(rs.getString(PASSWORD));
+        user.setAuthType(rs.getString(AUTH_TYPE));
+        user.setUserType(rs.getString(USER_TYPE));
+        return user;
+    }
+
     /**
      * inserts new user
      *
@@ -290,6 +281,8 @@ public class UserDB {
             stmt.setLong(6, user.getId());
             stmt.execute();
             DBUtils.closeStmt(stmt);
+            //user type may have changed
+            AuthDB.invalidateAuthorization(user.getId());
             if (User.ADMINISTRATOR.equals(user.getUserType())) {
                 PublicKeyDB.deleteUnassignedKeysByUser(con, user.getId());
             }
@@ -324,6 +317,8 @@ public class UserDB {
             stmt.setLong(8, user.getId());
             stmt.execute();
             DBUtils.closeStmt(stmt);
+            //user type may have changed
+            AuthDB.invalidateAuthorization(user.getId());
             if(User.ADMINISTRATOR.equals(user.getUserType())) {
                 PublicKeyDB.deleteUnassignedKeysByUser(con, user.getId());
             }
@@ -350,6 +345,7 @@ public class UserDB {
             stmt.setLong(1, userId);
             stmt.execute();
             DBUtils.closeStmt(stmt);
+            AuthDB.invalidateAuthorization(userId);
 
         } catch (Exception e) {
             log.error(e.toString(), e);
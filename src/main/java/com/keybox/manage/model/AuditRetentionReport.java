@@ -0,0 +1,131 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+import java.util.Date;
+
+/**
+ * Progress of a run of the audit retention job. Counts are updated by the retention thread
+ * while the run is in progress
+ */
+public class AuditRetentionReport {
+    Date startTm;
+    volatile Date endTm;
+    //audit history before this time is deleted
+    Date cutoffTm;
+    volatile long outputRows = 0;
+    volatile long chunks = 0;
+    volatile long textRows = 0;
+    volatile long sessions = 0;
+    volatile long emptySessions = 0;
+    volatile int batches = 0;
+
+    public AuditRetentionReport() {
+
+    }
+
+    public AuditRetentionReport(Date cutoffTm) {
+        this.startTm = new Date();
+        this.cutoffTm = cutoffTm;
+    }
+
+    public Date getStartTm() {
+        return startTm;
+    }
+
+    public void setStartTm(Date startTm) {
+        this.startTm = startTm;
+    }
+
+    public Date getEndTm() {
+        return endTm;
+    }
+
+    public void setEndTm(Date endTm) {
+        this.endTm = endTm;
+    }
+
+    public Date getCutoffTm() {
+        return cutoffTm;
+    }
+
+    public void setCutoffTm(Date cutoffTm) {
+        this.cutoffTm = cutoffTm;
+    }
+
+    public long getOutputRows() {
+        return outputRows;
+    }
+
+    public void setOutputRows(long outputRows) {
+        this.outputRows = outputRows;
+    }
+
+    public long getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(long chunks) {
+        this.chunks = chunks;
+    }
+
+    public long getTextRows() {
+        return textRows;
+    }
+
+    public void setTextRows(long textRows) {
+        this.textRows = textRows;
+    }
+
+    public long getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(long sessions) {
+        this.sessions = sessions;
+    }
+
+    public long getEmptySessions() {
+        return emptySessions;
+    }
+
+    public void setEmptySessions(long emptySessions) {
+        this.emptySessions = emptySessions;
+    }
+
+    public int getBatches() {
+        return batches;
+    }
+
+    public void setBatches(int batches) {
+        this.batches = batches;
+    }
+
+    public long getDuration() {
+        Date end = endTm != null ? endTm : new Date();
+        if (startTm != null) {
+            return end.getTime() - startTm.getTime();
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Audit retention before " + cutoffTm + " in " + getDuration() + "ms: " + sessions + " sessions ("
+                + emptySessions + " empty), " + outputRows + " output rows, " + chunks + " chunks, "
+                + textRows + " search rows deleted in " + batches + " batches";
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Aggregate result of distributing authorized keys to a set of systems
+ */
+public class KeyDistributionReport {
+    String scope;
+    Date startTm;
+    Date endTm;
+    int total = 0;
+    int success = 0;
+    int authFail = 0;
+    int hostFail = 0;
+    int genericFail = 0;
+    int retries = 0;
+    int unchanged = 0;
+    List<HostSystem> failedSystemList = new ArrayList<>();
+
+
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+
+    public Date getStartTm() {
+        return startTm;
+    }
+
+    public void setStartTm(Date startTm) {
+        this.startTm = startTm;
+    }
+
+    public Date getEndTm() {
+        return endTm;
+    }
+
+    public void setEndTm(Date endTm) {
+        this.endTm = endTm;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getSuccess() {
+        return success;
+    }
+
+    public void setSuccess(int success) {
+        this.success = success;
+    }
+
+    public int getAuthFail() {
+        return authFail;
+    }
+
+    public void setAuthFail(int authFail) {
+        this.authFail = authFail;
+    }
+
+    public int getHostFail() {
+        return hostFail;
+    }
+
+    public void setHostFail(int hostFail) {
+        this.hostFail = hostFail;
+    }
+
+    public int getGenericFail() {
+        return genericFail;
+    }
+
+    public void setGenericFail(int genericFail) {
+        this.genericFail = genericFail;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    public void setUnchanged(int unchanged) {
+        this.unchanged = unchanged;
+    }
+
+    public List<HostSystem> getFailedSystemList() {
+        return failedSystemList;
+    }
+
+    public void setFailedSystemList(List<HostSystem> failedSystemList) {
+        this.failedSystemList = failedSystemList;
+    }
+
+    /**
+     * @return time in milliseconds the distribution took
+     */
+    public long getDuration() {
+        if (startTm != null && endTm != null) {
+            return endTm.getTime() - startTm.getTime();
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Key distribution (" + scope + ") to " + total + " systems in " + getDuration() + "ms: "
+                + success + " succeeded (" + unchanged + " unchanged), " + authFail + " auth failed, " + hostFail + " host failed, "
+                + genericFail + " failed, " + retries + " retries";
+    }
+}
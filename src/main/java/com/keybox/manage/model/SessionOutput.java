@@ -15,6 +15,7 @@
  */
 package com.keybox.manage.model;
 
+import com.keybox.manage.util.OutputRingBuffer;
 
 /**
  * Output from ssh session
@@ -22,6 +23,8 @@ package com.keybox.manage.model;
 public class SessionOutput extends HostSystem {
     Long sessionId;
     StringBuilder output = new StringBuilder();
+    //output published by the shell task and drained into output by the web socket task
+    transient OutputRingBuffer outputBuffer;
 
     public SessionOutput() {
 
@@ -54,4 +57,12 @@ public class SessionOutput extends HostSystem {
         this.output = output;
     }
 
+    public OutputRingBuffer getOutputBuffer() {
+        return outputBuffer;
+    }
+
+    public void setOutputBuffer(OutputRingBuffer outputBuffer) {
+        this.outputBuffer = outputBuffer;
+    }
+
 }
\ No newline at end of file
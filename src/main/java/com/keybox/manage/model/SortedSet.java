@@ -15,6 +15,9 @@
  */
 package com.keybox.manage.model;
 
+import com.keybox.common.util.AppConfig;
+import org.apache.commons.lang3.StringUtils;
+
 import java.util.HashMap;
 import java.util.List;
 
@@ -22,10 +25,16 @@ import java.util.List;
  * allows for paged results on the display screens
  */
 public class SortedSet {
+    //rows per page on the listing screens
+    public static final int PAGE_SIZE = StringUtils.isNumeric(AppConfig.getProperty("pageSize")) ? Integer.parseInt(AppConfig.getProperty("pageSize")) : 50;
+
     private String orderByField = null;
     private String orderByDirection = "asc";
     private List itemList;
     private HashMap<String, String> filterMap = new HashMap<>();
+    private int pageSize = 0;
+    private String cursor = null;
+    private String nextCursor = null;
 
     public SortedSet() {
         
@@ -78,4 +87,76 @@ public class SortedSet {
     public void setFilterMap(HashMap<String, String> filterMap) {
         this.filterMap = filterMap;
     }
+
+    /**
+     * @return max rows to return, 0 for all rows
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return true if the result is limited to a page of rows
+     */
+    public boolean isPaged() {
+        return pageSize > 0;
+    }
+
+    /**
+     * @return sort key of the last row on the previous page, null for the first page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return sort key of the last row on this page, null if there are no more rows
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * returns cursor for a row as id and sort value separated by a colon, no colon if the value is null
+     *
+     * @param id    row id
+     * @param value value of the order by field
+     * @return cursor
+     */
+    public static String encodeCursor(Long id, String value) {
+        return value == null ? id.toString() : id + ":" + value;
+    }
+
+    /**
+     * @return id of the row the cursor points to, null if there is no valid cursor
+     */
+    public Long getCursorId() {
+        String id = StringUtils.substringBefore(cursor, ":");
+        if (StringUtils.isNumeric(id)) {
+            return Long.parseLong(id);
+        }
+        return null;
+    }
+
+    /**
+     * @return value of the order by field for the row the cursor points to
+     */
+    public String getCursorValue() {
+        if (cursor != null && cursor.contains(":")) {
+            return StringUtils.substringAfter(cursor, ":");
+        }
+        return null;
+    }
 }
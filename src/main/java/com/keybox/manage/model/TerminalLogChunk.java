@@ -0,0 +1,193 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+import java.util.Arrays;
+
+/**
+ * Terminal output for a session terminal stored as one compressed chunk with an index of
+ * the time each output was appended
+ */
+public class TerminalLogChunk {
+    Long id;
+    Long sessionId;
+    Integer instanceId;
+    Long systemId;
+    long startTm;
+    long endTm;
+    StringBuilder output = new StringBuilder();
+    //char offset into output and time in milliseconds after start for each output appended
+    int[] indexOffsets = new int[16];
+    int[] indexTimes = new int[16];
+    int indexSize = 0;
+    //normalizer state and last lines of normalized output at the start of the chunk for replay
+    int normalizerState = 0;
+    String screen;
+    //normalized partial line, only read for chunks logged before the screen was stored
+    String linePrefix = "";
+
+    public TerminalLogChunk() {
+
+    }
+
+    public TerminalLogChunk(TerminalLogEntry logEntry) {
+        this.sessionId = logEntry.getSessionId();
+        this.instanceId = logEntry.getInstanceId();
+        this.systemId = logEntry.getSystemId();
+        this.startTm = logEntry.getLogTm();
+        this.endTm = logEntry.getLogTm();
+    }
+
+    /**
+     * appends output and adds it to the time index
+     *
+     * @param text  output
+     * @param logTm time of the output
+     */
+    public void append(String text, long logTm) {
+        addIndex(output.length(), (int) Math.max(0, logTm - startTm));
+        output.append(text);
+        endTm = Math.max(endTm, logTm);
+    }
+
+    /**
+     * adds an entry to the time index
+     *
+     * @param offset char offset into output
+     * @param time   time in milliseconds after start
+     */
+    public void addIndex(int offset, int time) {
+        if (indexSize == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+            indexTimes = Arrays.copyOf(indexTimes, indexSize * 2);
+        }
+        indexOffsets[indexSize] = offset;
+        indexTimes[indexSize] = time;
+        indexSize++;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(Long sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public Integer getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(Integer instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    public Long getSystemId() {
+        return systemId;
+    }
+
+    public void setSystemId(Long systemId) {
+        this.systemId = systemId;
+    }
+
+    public long getStartTm() {
+        return startTm;
+    }
+
+    public void setStartTm(long startTm) {
+        this.startTm = startTm;
+    }
+
+    public long getEndTm() {
+        return endTm;
+    }
+
+    public void setEndTm(long endTm) {
+        this.endTm = endTm;
+    }
+
+    public StringBuilder getOutput() {
+        return output;
+    }
+
+    public void setOutput(StringBuilder output) {
+        this.output = output;
+    }
+
+    public int getNormalizerState() {
+        return normalizerState;
+    }
+
+    public void setNormalizerState(int normalizerState) {
+        this.normalizerState = normalizerState;
+    }
+
+    public String getScreen() {
+        return screen;
+    }
+
+    public void setScreen(String screen) {
+        this.screen = screen;
+    }
+
+    public String getLinePrefix() {
+        return linePrefix;
+    }
+
+    public void setLinePrefix(String linePrefix) {
+        this.linePrefix = linePrefix;
+    }
+
+    /**
+     * returns the char offset of the first output appended at or after the given time
+     *
+     * @param time time in milliseconds after start
+     * @return char offset into output
+     */
+    public int getOffsetForTime(int time) {
+        int low = 0;
+        int high = indexSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (indexTimes[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < indexSize ? indexOffsets[low] : output.length();
+    }
+
+    public int getIndexSize() {
+        return indexSize;
+    }
+
+    public int getIndexOffset(int i) {
+        return indexOffsets[i];
+    }
+
+    public int getIndexTime(int i) {
+        return indexTimes[i];
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+/**
+ * Terminal output waiting to be written to the terminal log
+ */
+public class TerminalLogEntry {
+    Long sessionId;
+    Integer instanceId;
+    Long systemId;
+    String output;
+    long logTm;
+
+    public TerminalLogEntry() {
+
+    }
+
+    public TerminalLogEntry(SessionOutput sessionOutput) {
+        this.sessionId = sessionOutput.getSessionId();
+        this.instanceId = sessionOutput.getInstanceId();
+        this.systemId = sessionOutput.getId();
+        this.output = sessionOutput.getOutput().toString();
+        this.logTm = System.currentTimeMillis();
+    }
+
+    public Long getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(Long sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public Integer getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(Integer instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    public Long getSystemId() {
+        return systemId;
+    }
+
+    public void setSystemId(Long systemId) {
+        this.systemId = systemId;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    public long getLogTm() {
+        return logTm;
+    }
+
+    public void setLogTm(long logTm) {
+        this.logTm = logTm;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+import java.util.Date;
+
+/**
+ * Terminal output for a session terminal matching an audit search
+ */
+public class TerminalLogHit {
+    Long sessionId;
+    Integer instanceId;
+    HostSystem hostSystem;
+    String username;
+    Date sessionTm;
+    Date hitTm;
+    String snippet;
+
+    public Long getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(Long sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public Integer getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(Integer instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    public HostSystem getHostSystem() {
+        return hostSystem;
+    }
+
+    public void setHostSystem(HostSystem hostSystem) {
+        this.hostSystem = hostSystem;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public Date getSessionTm() {
+        return sessionTm;
+    }
+
+    public void setSessionTm(Date sessionTm) {
+        this.sessionTm = sessionTm;
+    }
+
+    public Date getHitTm() {
+        return hitTm;
+    }
+
+    public void setHitTm(Date hitTm) {
+        this.hitTm = hitTm;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public void setSnippet(String snippet) {
+        this.snippet = snippet;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Window of a session terminal replay. Holds the output on the screen at the replay time and
+ * the frames to play after it
+ */
+public class TerminalReplay {
+    Long sessionId;
+    Integer instanceId;
+    //time of the first and last output for the terminal
+    long startTm;
+    long endTm;
+    //time the window starts and the next window starts
+    long tm;
+    long nextTm;
+    String screen = "";
+    List<TerminalReplayFrame> frameList = new ArrayList<>();
+    boolean done = false;
+
+    public Long getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(Long sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public Integer getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(Integer instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    public long getStartTm() {
+        return startTm;
+    }
+
+    public void setStartTm(long startTm) {
+        this.startTm = startTm;
+    }
+
+    public long getEndTm() {
+        return endTm;
+    }
+
+    public void setEndTm(long endTm) {
+        this.endTm = endTm;
+    }
+
+    public long getTm() {
+        return tm;
+    }
+
+    public void setTm(long tm) {
+        this.tm = tm;
+    }
+
+    public long getNextTm() {
+        return nextTm;
+    }
+
+    public void setNextTm(long nextTm) {
+        this.nextTm = nextTm;
+    }
+
+    public String getScreen() {
+        return screen;
+    }
+
+    public void setScreen(String screen) {
+        this.screen = screen;
+    }
+
+    public List<TerminalReplayFrame> getFrameList() {
+        return frameList;
+    }
+
+    public void setFrameList(List<TerminalReplayFrame> frameList) {
+        this.frameList = frameList;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+}
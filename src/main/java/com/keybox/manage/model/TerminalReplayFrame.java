@@ -1,5 +1,5 @@
 /**
- * Copyright 2015 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,29 +15,35 @@
  */
 package com.keybox.manage.model;
 
-public class AuditWrapper {
+/**
+ * Normalized terminal output and the time it was sent, played back in a session replay
+ */
+public class TerminalReplayFrame {
+    long tm;
+    String output;
 
-    User user;
-    SessionOutput sessionOutput;
+    public TerminalReplayFrame() {
+
+    }
 
-    public AuditWrapper(User user, SessionOutput sessionOutput) {
-        this.user=user;
-        this.sessionOutput=sessionOutput;
+    public TerminalReplayFrame(long tm, String output) {
+        this.tm = tm;
+        this.output = output;
     }
 
-    public User getUser() {
-        return user;
+    public long getTm() {
+        return tm;
     }
 
-    public void setUser(User user) {
-        this.user = user;
+    public void setTm(long tm) {
+        this.tm = tm;
     }
 
-    public SessionOutput getSessionOutput() {
-        return sessionOutput;
+    public String getOutput() {
+        return output;
     }
 
-    public void setSessionOutput(SessionOutput sessionOutput) {
-        this.sessionOutput = sessionOutput;
+    public void setOutput(String output) {
+        this.output = output;
     }
 }
@@ -24,6 +24,7 @@ import com.keybox.manage.model.SchSession;
 import com.keybox.manage.model.UserSchSessions;
 import com.keybox.manage.task.SentOutputTask;
 import com.keybox.manage.util.SessionOutputUtil;
+import com.keybox.manage.util.TerminalPoolUtil;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.http.HttpSession;
@@ -33,6 +34,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +50,7 @@ public class SecureShellWS {
     private HttpSession httpSession;
     private Session session;
     private Long sessionId = null;
+    private SentOutputTask sentOutputTask = null;
 
 
 
@@ -66,9 +69,23 @@ public class SecureShellWS {
         this.sessionId = AuthUtil.getSessionId(httpSession);
         this.session = session;
 
-        Runnable run=new SentOutputTask(sessionId, session, UserDB.getUser(AuthUtil.getUserId(httpSession)));
-        Thread thread = new Thread(run);
-        thread.start();
+        //register task to be signaled when output is added for the session
+        //use binary output frames if requested by the client
+        boolean binary = session.getRequestParameterMap().get("protocol") != null
+                && session.getRequestParameterMap().get("protocol").contains(SentOutputTask.PROTOCOL_BINARY);
+        this.sentOutputTask = new SentOutputTask(sessionId, session, UserDB.getUser(AuthUtil.getUserId(httpSession)), binary);
+        SessionOutputUtil.addDispatcher(sessionId, sentOutputTask);
+        try {
+            TerminalPoolUtil.executeWebSocketTask(sentOutputTask);
+        } catch (RejectedExecutionException ex) {
+            log.error("Max number of web socket connections (" + TerminalPoolUtil.getWebSocketPoolSize() + ") has been reached");
+            SessionOutputUtil.removeDispatcher(sessionId, sentOutputTask);
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Max number of connections reached"));
+            } catch (IOException e) {
+                log.error(e.toString(), e);
+            }
+        }
 
     }
 
@@ -120,6 +137,10 @@ public class SecureShellWS {
     @OnClose
     public void onClose() {
 
+        if (sentOutputTask != null) {
+            sentOutputTask.stop();
+        }
+
         if (SecureShellAction.getUserSchSessionMap() != null) {
             UserSchSessions userSchSessions = SecureShellAction.getUserSchSessionMap().get(sessionId);
             if (userSchSessions != null) {
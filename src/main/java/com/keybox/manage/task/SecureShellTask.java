@@ -15,8 +15,10 @@
  */
 package com.keybox.manage.task;
 
+import com.keybox.common.util.AppConfig;
 import com.keybox.manage.util.SessionOutputUtil;
 import com.keybox.manage.model.SessionOutput;
+import org.apache.commons.lang3.StringUtils;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
@@ -26,14 +28,22 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Task to watch for output read from the ssh session stream
+ * Task to watch for output read from the ssh session stream. Output is handed off as soon as the
+ * stream is idle, while output that is still arriving is coalesced up to a max size or time window
  */
 public class SecureShellTask implements Runnable {
 
     private static Logger log = LoggerFactory.getLogger(SecureShellTask.class);
 
+    //max number of characters to coalesce before adding to the session output
+    public static final int COALESCE_SIZE = StringUtils.isNumeric(AppConfig.getProperty("outputCoalesceSize")) ? Math.max(1, Integer.parseInt(AppConfig.getProperty("outputCoalesceSize"))) : 8192;
+    //max time in milliseconds to coalesce output that is still arriving
+    public static final long COALESCE_WINDOW = StringUtils.isNumeric(AppConfig.getProperty("outputCoalesceWindow")) ? Long.parseLong(AppConfig.getProperty("outputCoalesceWindow")) : 10;
+
     InputStream outFromChannel;
     SessionOutput sessionOutput;
+    int coalesceSize = COALESCE_SIZE;
+    long coalesceWindow = COALESCE_WINDOW;
 
     public SecureShellTask(SessionOutput sessionOutput, InputStream outFromChannel) {
 
@@ -41,6 +51,19 @@ public class SecureShellTask implements Runnable {
         this.outFromChannel = outFromChannel;
     }
 
+    /**
+     * @param sessionOutput  session output
+     * @param outFromChannel output stream of the ssh channel
+     * @param coalesceSize   max number of characters to coalesce
+     * @param coalesceWindow max time in milliseconds to coalesce output that is still arriving
+     */
+    public SecureShellTask(SessionOutput sessionOutput, InputStream outFromChannel, int coalesceSize, long coalesceWindow) {
+
+        this(sessionOutput, outFromChannel);
+        this.coalesceSize = Math.max(1, coalesceSize);
+        this.coalesceWindow = coalesceWindow;
+    }
+
     public void run() {
         InputStreamReader isr = new InputStreamReader(outFromChannel);
         BufferedReader br = new BufferedReader(isr);
@@ -48,12 +71,26 @@ public class SecureShellTask implements Runnable {
 
             SessionOutputUtil.addOutput(sessionOutput);
 
-            char[] buff = new char[1024];
+            char[] buff = new char[coalesceSize];
+            int count = 0;
+            long frameStartTm = 0;
             int read;
-            while((read = br.read(buff)) != -1) {
+            while ((read = br.read(buff, count, buff.length - count)) != -1) {
+
+                if (count == 0) {
+                    frameStartTm = System.currentTimeMillis();
+                }
+                count = count + read;
 
-                SessionOutputUtil.addToOutput(sessionOutput.getSessionId(), sessionOutput.getInstanceId(), buff,0,read);
-                Thread.sleep(50);
+                //keep reading while more output is pending, otherwise send what has been read (ie keystroke echo)
+                if (count < buff.length && br.ready() && System.currentTimeMillis() - frameStartTm < coalesceWindow) {
+                    continue;
+                }
+                SessionOutputUtil.addToOutput(sessionOutput.getSessionId(), sessionOutput.getInstanceId(), buff, 0, count);
+                count = 0;
+            }
+            if (count > 0) {
+                SessionOutputUtil.addToOutput(sessionOutput.getSessionId(), sessionOutput.getInstanceId(), buff, 0, count);
             }
 
             SessionOutputUtil.removeOutput(sessionOutput.getSessionId(), sessionOutput.getInstanceId());
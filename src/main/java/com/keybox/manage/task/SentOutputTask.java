@@ -18,25 +18,58 @@ package com.keybox.manage.task;
 import com.google.gson.Gson;
 import com.keybox.manage.model.SessionOutput;
 import com.keybox.manage.model.User;
-import com.keybox.manage.util.DBUtils;
 import com.keybox.manage.util.SessionOutputUtil;
 
 import javax.websocket.Session;
-import java.sql.Connection;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * class to send output to web socket client
+ * class to send output to web socket client. The task sleeps until a shell task
+ * signals that output has been added for the session and then flushes it to the client.
+ * <p/>
+ * When the binary protocol has been negotiated, host information is sent once as JSON when a terminal
+ * opens and output is sent as binary frames of records containing the instance id (int), the
+ * length of the output (int) and the UTF-8 output bytes
  */
 public class SentOutputTask implements Runnable {
 
     private static Logger log = LoggerFactory.getLogger(SentOutputTask.class);
 
+    //max time to wait for a signal before checking if the web socket is still open
+    private static final long IDLE_CHECK_INTERVAL = 5000;
+
+    public static final String PROTOCOL_BINARY = "binary";
+
     Session session;
     Long sessionId;
     User user;
+    boolean binary = false;
+
+    //terminals that host information has been sent for
+    private Map<Integer, SessionOutput> openedTermMap = new HashMap<>();
+    //high surrogate at the end of a terminal's output, sent with the low surrogate in the next flush
+    private Map<Integer, String> pendingCharsMap = new HashMap<>();
+    private CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer frame = ByteBuffer.allocate(8192);
+
+    private final Object lock = new Object();
+    //start with output ready to flush anything written before the web socket was opened
+    private boolean outputReady = true;
+    private boolean stopped = false;
 
     public SentOutputTask(Long sessionId, Session session, User user) {
         this.sessionId = sessionId;
@@ -44,26 +77,142 @@ public class SentOutputTask implements Runnable {
         this.user = user;
     }
 
+    public SentOutputTask(Long sessionId, Session session, User user, boolean binary) {
+        this(sessionId, session, user);
+        this.binary = binary;
+    }
+
+    /**
+     * signals that output is ready to be sent to the web socket client
+     */
+    public void signal() {
+        synchronized (lock) {
+            outputReady = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * stops the task once the web socket has been closed
+     */
+    public void stop() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+    }
+
     public void run() {
 
         Gson gson = new Gson();
 
-        while (session.isOpen()) {
-            Connection con = DBUtils.getConn();
-            List<SessionOutput> outputList = SessionOutputUtil.getOutput(con, sessionId, user);
-            try {
-                if (outputList != null && !outputList.isEmpty()) {
-                    String json = gson.toJson(outputList);
-                    //send json to session
-                    this.session.getBasicRemote().sendText(json);
+        try {
+            while (awaitOutput()) {
+                List<SessionOutput> outputList = SessionOutputUtil.getOutput(sessionId, user);
+                try {
+                    if (outputList != null && !outputList.isEmpty()) {
+                        if (binary) {
+                            sendBinary(gson, outputList);
+                        } else {
+                            String json = gson.toJson(outputList);
+                            //send json to session
+                            this.session.getBasicRemote().sendText(json);
+                        }
+                    }
+                } catch (Exception ex) {
+                    log.error(ex.toString(), ex);
                 }
-                Thread.sleep(25);
-            } catch (Exception ex) {
-                log.error(ex.toString(), ex);
             }
-            finally {
-                DBUtils.closeConn(con);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            SessionOutputUtil.removeDispatcher(sessionId, this);
+        }
+    }
+
+    /**
+     * sends host information for newly opened terminals followed by a binary frame with the output
+     *
+     * @param gson        gson object
+     * @param outputList  session output list
+     * @throws IOException
+     */
+    private void sendBinary(Gson gson, List<SessionOutput> outputList) throws IOException {
+
+        List<Map<String, Object>> hostList = new ArrayList<>();
+        for (SessionOutput sessionOutput : outputList) {
+            if (openedTermMap.get(sessionOutput.getInstanceId()) != sessionOutput) {
+                openedTermMap.put(sessionOutput.getInstanceId(), sessionOutput);
+                pendingCharsMap.remove(sessionOutput.getInstanceId());
+
+                Map<String, Object> host = new LinkedHashMap<>();
+                host.put("instanceId", sessionOutput.getInstanceId());
+                host.put("id", sessionOutput.getId());
+                host.put("displayLabel", sessionOutput.getDisplayLabel());
+                hostList.add(host);
+            }
+        }
+        if (!hostList.isEmpty()) {
+            this.session.getBasicRemote().sendText(gson.toJson(hostList));
+        }
+
+        frame.clear();
+        for (SessionOutput sessionOutput : outputList) {
+            CharBuffer chars;
+            String pending = pendingCharsMap.remove(sessionOutput.getInstanceId());
+            if (pending != null) {
+                chars = CharBuffer.allocate(pending.length() + sessionOutput.getOutput().length());
+                chars.append(pending).append(sessionOutput.getOutput()).flip();
+            } else {
+                chars = CharBuffer.wrap(sessionOutput.getOutput());
+            }
+            ensureCapacity(8 + (int) (chars.remaining() * encoder.maxBytesPerChar()));
+
+            frame.putInt(sessionOutput.getInstanceId());
+            int lengthPos = frame.position();
+            frame.putInt(0);
+            //more output may follow, so a surrogate pair split across flushes is left unencoded
+            encoder.reset();
+            encoder.encode(chars, frame, false);
+            if (chars.hasRemaining()) {
+                pendingCharsMap.put(sessionOutput.getInstanceId(), chars.toString());
+            }
+            frame.putInt(lengthPos, frame.position() - lengthPos - 4);
+        }
+        frame.flip();
+        this.session.getBasicRemote().sendBinary(frame);
+    }
+
+    /**
+     * grows the frame buffer if there is not enough room remaining
+     *
+     * @param required number of bytes required
+     */
+    private void ensureCapacity(int required) {
+        if (frame.remaining() < required) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(frame.capacity() * 2, frame.position() + required));
+            frame.flip();
+            larger.put(frame);
+            frame = larger;
+        }
+    }
+
+    /**
+     * waits until output has been signaled or the web socket is closed
+     *
+     * @return true if output is ready to be sent
+     * @throws InterruptedException
+     */
+    private boolean awaitOutput() throws InterruptedException {
+        synchronized (lock) {
+            while (!outputReady && !stopped && session.isOpen()) {
+                lock.wait(IDLE_CHECK_INTERVAL);
+            }
+            if (stopped || !session.isOpen()) {
+                return false;
             }
+            outputReady = false;
+            return true;
         }
     }
 }
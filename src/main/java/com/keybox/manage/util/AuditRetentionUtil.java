@@ -0,0 +1,132 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.db.SessionAuditDB;
+import com.keybox.manage.model.AuditRetentionReport;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes audit history older than the retention period on a schedule. History is deleted in
+ * small batches, each committed on its own, so a large backlog does not hold locks on the
+ * audit tables and the progress of a run can be reported while it runs
+ */
+public class AuditRetentionUtil {
+
+    private static Logger log = LoggerFactory.getLogger(AuditRetentionUtil.class);
+
+    //days audit history is kept
+    public static final int RETENTION_DAYS = StringUtils.isNumeric(AppConfig.getProperty("deleteAuditLogAfter")) ? Integer.parseInt(AppConfig.getProperty("deleteAuditLogAfter")) : 90;
+    //minutes between runs
+    public static final int INTERVAL = StringUtils.isNumeric(AppConfig.getProperty("auditRetentionInterval")) ? Integer.parseInt(AppConfig.getProperty("auditRetentionInterval")) : 60;
+    //max rows deleted from a table in one batch
+    public static final int BATCH_SIZE = StringUtils.isNumeric(AppConfig.getProperty("auditRetentionBatchSize")) ? Math.max(1, Integer.parseInt(AppConfig.getProperty("auditRetentionBatchSize"))) : 500;
+    //time in milliseconds to pause between batches so other writes to the audit tables are not starved
+    private static final long BATCH_PAUSE = 100;
+    //time sessions are kept without output, recent sessions may still have output waiting to be written
+    private static final long EMPTY_SESSION_AGE = 24 * 60 * 60 * 1000L;
+
+    private static ScheduledExecutorService retentionExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("keybox-retention"));
+
+    private static volatile AuditRetentionReport currentReport = null;
+    private static volatile AuditRetentionReport lastReport = null;
+    //id of the last session checked for output, sessions are checked once
+    private static Long emptySessionId = 0L;
+
+    private AuditRetentionUtil() {
+    }
+
+    /**
+     * schedules the retention job, the first run is after one interval so startup is not slowed
+     */
+    public static void start() {
+        if (INTERVAL > 0) {
+            retentionExecutor.scheduleWithFixedDelay(new RetentionTask(), INTERVAL, INTERVAL, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * stops the retention job, a run in progress stops after its current batch
+     */
+    public static void shutdown() {
+        retentionExecutor.shutdownNow();
+    }
+
+    /**
+     * @return report for the run in progress or null if none
+     */
+    public static AuditRetentionReport getCurrentReport() {
+        return currentReport;
+    }
+
+    /**
+     * @return report for the last completed run or null if none
+     */
+    public static AuditRetentionReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Task that deletes expired audit history in batches
+     */
+    private static class RetentionTask implements Runnable {
+
+        @Override
+        public void run() {
+
+            long now = System.currentTimeMillis();
+            AuditRetentionReport report = new AuditRetentionReport(new Timestamp(now - RETENTION_DAYS * 24 * 60 * 60 * 1000L));
+            currentReport = report;
+
+            Connection con = null;
+            try {
+                con = DBUtils.getConn();
+                Timestamp cutoffTm = new Timestamp(report.getCutoffTm().getTime());
+                while (SessionAuditDB.deleteAuditHistory(con, cutoffTm, BATCH_SIZE, report) > 0) {
+                    Thread.sleep(BATCH_PAUSE);
+                }
+
+                Timestamp emptyBeforeTm = new Timestamp(now - EMPTY_SESSION_AGE);
+                Long lastId;
+                while ((lastId = SessionAuditDB.deleteEmptySessions(con, emptyBeforeTm, emptySessionId, BATCH_SIZE, report)) != null) {
+                    emptySessionId = lastId;
+                    Thread.sleep(BATCH_PAUSE);
+                }
+
+            } catch (InterruptedException ex) {
+                log.info("Audit retention stopped");
+            } catch (Exception ex) {
+                log.error(ex.toString(), ex);
+            } finally {
+                DBUtils.closeConn(con);
+            }
+
+            report.setEndTm(new Timestamp(System.currentTimeMillis()));
+            lastReport = report;
+            currentReport = null;
+            log.info(report.toString());
+        }
+    }
+}
@@ -15,8 +15,12 @@
  */
 package com.keybox.manage.util;
 
+import com.keybox.manage.model.SortedSet;
+
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -100,4 +104,100 @@ public class DBUtils {
 
     }
 
+    /**
+     * returns condition to seek past the cursor of the sorted set, ordered by the order by field then id
+     *
+     * @param sortedSet sorted set object
+     * @param idColumn  id column of the listed table
+     * @return and clause or empty string if there is no cursor
+     */
+    public static String getSeekClause(SortedSet sortedSet, String idColumn) {
+        if (sortedSet.getCursorId() == null) {
+            return "";
+        }
+        String op = "asc".equals(sortedSet.getOrderByDirection()) ? ">" : "<";
+        String field = sortedSet.getOrderByField();
+        if (field == null || field.trim().equals("")) {
+            return " and " + idColumn + " " + op + " ? ";
+        }
+        //nulls sort first ascending and last descending
+        if (sortedSet.getCursorValue() == null) {
+            return "asc".equals(sortedSet.getOrderByDirection())
+                    ? " and ((" + field + " is null and " + idColumn + " > ?) or " + field + " is not null) "
+                    : " and " + field + " is null and " + idColumn + " < ? ";
+        }
+        return " and (" + field + " " + op + " ? or (" + field + " = ? and " + idColumn + " " + op + " ?)"
+                + ("asc".equals(sortedSet.getOrderByDirection()) ? "" : " or " + field + " is null") + ") ";
+    }
+
+    /**
+     * sets parameters for the seek clause
+     *
+     * @param stmt      prepared statement
+     * @param i         index of the first seek parameter
+     * @param sortedSet sorted set object
+     * @return index of the next parameter
+     */
+    public static int setSeekParams(PreparedStatement stmt, int i, SortedSet sortedSet) throws SQLException {
+        Long id = sortedSet.getCursorId();
+        if (id != null) {
+            String field = sortedSet.getOrderByField();
+            String value = sortedSet.getCursorValue();
+            if (field != null && !field.trim().equals("") && value != null) {
+                stmt.setString(i++, value);
+                stmt.setString(i++, value);
+            }
+            stmt.setLong(i++, id);
+        }
+        return i;
+    }
+
+    /**
+     * returns order by for the sorted set with id as tie breaker, limited to one row past the page
+     *
+     * @param sortedSet sorted set object
+     * @param idColumn  id column of the listed table
+     * @return order by and limit clause
+     */
+    public static String getOrderBy(SortedSet sortedSet, String idColumn) {
+        String orderBy = " order by ";
+        if (sortedSet.getOrderByField() != null && !sortedSet.getOrderByField().trim().equals("")) {
+            orderBy += sortedSet.getOrderByField() + " " + sortedSet.getOrderByDirection() + ", ";
+        }
+        orderBy += idColumn + " " + sortedSet.getOrderByDirection();
+        if (sortedSet.isPaged()) {
+            orderBy += " limit " + (sortedSet.getPageSize() + 1);
+        }
+        return orderBy;
+    }
+
+    /**
+     * moves to the next row on the page and records it as the next cursor
+     *
+     * @param rs        result set for a query using the order by clause
+     * @param sortedSet sorted set object
+     * @param idLabel   label of the id column
+     * @param rowCount  rows read so far
+     * @return false when there are no more rows on the page
+     */
+    public static boolean nextPageRow(ResultSet rs, SortedSet sortedSet, String idLabel, int rowCount) throws SQLException {
+        if (!rs.next()) {
+            sortedSet.setNextCursor(null);
+            return false;
+        }
+        //extra row means another page follows the last recorded cursor
+        if (sortedSet.isPaged() && rowCount >= sortedSet.getPageSize()) {
+            return false;
+        }
+        if (sortedSet.isPaged()) {
+            String value = null;
+            String field = sortedSet.getOrderByField();
+            if (field != null && !field.trim().equals("")) {
+                value = rs.getString(field.substring(field.lastIndexOf('.') + 1));
+            }
+            sortedSet.setNextCursor(SortedSet.encodeCursor(rs.getLong(idLabel), value));
+        }
+        return true;
+    }
+
 }
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.db.KeyChangeDB;
+import com.keybox.manage.db.PrivateKeyDB;
+import com.keybox.manage.db.SystemDB;
+import com.keybox.manage.model.HostSystem;
+import com.keybox.manage.model.KeyDistributionReport;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distributes authorized keys to systems with a bounded number of concurrent connections.
+ * Systems that fail to connect are retried with an exponential backoff and the results are
+ * aggregated into a report. Successfully refreshed systems are cleared from the key change journal
+ * and the digest of the keys pushed is persisted, so systems with unchanged keys are skipped without
+ * connecting until the digest is older than the drift window
+ */
+public class KeyDistributionUtil {
+
+    private static Logger log = LoggerFactory.getLogger(KeyDistributionUtil.class);
+
+    //max number of systems keys are distributed to at the same time
+    public static final int POOL_SIZE = StringUtils.isNumeric(AppConfig.getProperty("keyDistributionPoolSize")) ? Integer.parseInt(AppConfig.getProperty("keyDistributionPoolSize")) : 10;
+    //number of times to retry a system that failed to connect
+    public static final int MAX_RETRIES = StringUtils.isNumeric(AppConfig.getProperty("keyDistributionRetries")) ? Integer.parseInt(AppConfig.getProperty("keyDistributionRetries")) : 2;
+    //time in milliseconds to wait before the first retry, doubled for each retry after that
+    public static final long RETRY_BACKOFF = StringUtils.isNumeric(AppConfig.getProperty("keyDistributionBackoff")) ? Long.parseLong(AppConfig.getProperty("keyDistributionBackoff")) : 5000;
+    //time in minutes before a system with unchanged keys is verified again
+    public static final int DRIFT_WINDOW = StringUtils.isNumeric(AppConfig.getProperty("authKeysDriftWindow")) ? Integer.parseInt(AppConfig.getProperty("authKeysDriftWindow")) : 1440;
+
+    private static ScheduledThreadPoolExecutor distributionPool = new ScheduledThreadPoolExecutor(Math.max(1, POOL_SIZE), new NamedThreadFactory("keybox-keys"));
+
+    private static volatile KeyDistributionReport lastReport = null;
+
+    private KeyDistributionUtil() {
+    }
+
+    /**
+     * distributes authorized keys to systems and waits for all systems to finish
+     *
+     * @param scope          description of the systems keys are being distributed to
+     * @param hostSystemList systems to distribute keys to
+     * @return report of the distribution results
+     */
+    public static KeyDistributionReport distribute(String scope, List<HostSystem> hostSystemList) {
+
+        KeyDistributionReport report = new KeyDistributionReport();
+        report.setScope(scope);
+        report.setStartTm(new Date());
+        report.setTotal(hostSystemList.size());
+
+        String appPublicKey = PrivateKeyDB.getApplicationKey().getPublicKey();
+        //digests verified before this time are checked on the system
+        Timestamp verifiedAfter = new Timestamp(report.getStartTm().getTime() - DRIFT_WINDOW * 60000L);
+
+        CountDownLatch latch = new CountDownLatch(hostSystemList.size());
+        for (HostSystem hostSystem : hostSystemList) {
+            distributionPool.execute(new DistributionTask(hostSystem, appPublicKey, verifiedAfter, report, latch));
+        }
+
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        report.setEndTm(new Date());
+        lastReport = report;
+        log.info(report.toString());
+
+        return report;
+    }
+
+    /**
+     * @return report of the last distribution
+     */
+    public static KeyDistributionReport getLastReport() {
+        return lastReport;
+    }
+
+    public static int getActiveTasks() {
+        return distributionPool.getActiveCount();
+    }
+
+    public static int getQueuedTasks() {
+        return distributionPool.getQueue().size();
+    }
+
+    /**
+     * stops distributing keys
+     */
+    public static void shutdown() {
+        distributionPool.shutdownNow();
+    }
+
+    /**
+     * adds the result for the system to the report
+     *
+     * @param report     distribution report
+     * @param hostSystem system with distribution status
+     */
+    private static void addResult(KeyDistributionReport report, HostSystem hostSystem) {
+        if (HostSystem.SUCCESS_STATUS.equals(hostSystem.getStatusCd())) {
+            //changes recorded after the distribution started are kept for the next refresh
+            KeyChangeDB.clearChange(hostSystem.getId(), new Timestamp(report.getStartTm().getTime()));
+        }
+        synchronized (report) {
+            if (HostSystem.SUCCESS_STATUS.equals(hostSystem.getStatusCd())) {
+                report.setSuccess(report.getSuccess() + 1);
+            } else {
+                if (HostSystem.AUTH_FAIL_STATUS.equals(hostSystem.getStatusCd())
+                        || HostSystem.PUBLIC_KEY_FAIL_STATUS.equals(hostSystem.getStatusCd())) {
+                    report.setAuthFail(report.getAuthFail() + 1);
+                } else if (HostSystem.HOST_FAIL_STATUS.equals(hostSystem.getStatusCd())) {
+                    report.setHostFail(report.getHostFail() + 1);
+                } else {
+                    report.setGenericFail(report.getGenericFail() + 1);
+                }
+                report.getFailedSystemList().add(hostSystem);
+            }
+        }
+    }
+
+    /**
+     * Task to distribute keys to a system and reschedule itself if the system failed to connect
+     */
+    private static class DistributionTask implements Runnable {
+
+        HostSystem hostSystem;
+        String appPublicKey;
+        Timestamp verifiedAfter;
+        KeyDistributionReport report;
+        CountDownLatch latch;
+        int attempt = 0;
+
+        DistributionTask(HostSystem hostSystem, String appPublicKey, Timestamp verifiedAfter, KeyDistributionReport report, CountDownLatch latch) {
+            this.hostSystem = hostSystem;
+            this.appPublicKey = appPublicKey;
+            this.verifiedAfter = verifiedAfter;
+            this.report = report;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            boolean finished = true;
+            try {
+                hostSystem.setErrorMsg(null);
+
+                //digest of the keys before the push so a later change is never mistaken as pushed
+                String digest = DigestUtils.sha256Hex(SSHUtil.getManagedAuthorizedKeys(hostSystem.getId(), appPublicKey));
+                if (DRIFT_WINDOW > 0 && KeyChangeDB.isKeysDigestCurrent(hostSystem.getId(), digest, verifiedAfter)) {
+                    synchronized (report) {
+                        report.setUnchanged(report.getUnchanged() + 1);
+                    }
+                    hostSystem.setStatusCd(HostSystem.SUCCESS_STATUS);
+                    addResult(report, hostSystem);
+                    return;
+                }
+
+                hostSystem = SSHUtil.authAndAddPubKey(hostSystem, null, null);
+                if (HostSystem.SUCCESS_STATUS.equals(hostSystem.getStatusCd())) {
+                    KeyChangeDB.updateKeysDigest(hostSystem.getId(), digest);
+                } else {
+                    KeyChangeDB.updateKeysDigest(hostSystem.getId(), null);
+                }
+
+                //auth failures will not succeed on retry
+                if ((HostSystem.GENERIC_FAIL_STATUS.equals(hostSystem.getStatusCd())
+                        || HostSystem.HOST_FAIL_STATUS.equals(hostSystem.getStatusCd()))
+                        && attempt < MAX_RETRIES) {
+
+                    long delay = RETRY_BACKOFF * (1L << attempt);
+                    attempt++;
+                    synchronized (report) {
+                        report.setRetries(report.getRetries() + 1);
+                    }
+                    distributionPool.schedule(this, delay, TimeUnit.MILLISECONDS);
+                    finished = false;
+                } else {
+                    SystemDB.updateSystem(hostSystem);
+                    addResult(report, hostSystem);
+                }
+            } catch (Exception ex) {
+                log.error(ex.toString(), ex);
+                hostSystem.setStatusCd(HostSystem.GENERIC_FAIL_STATUS);
+                addResult(report, hostSystem);
+            } finally {
+                if (finished) {
+                    latch.countDown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer / single-consumer ring buffer for terminal output. The shell task
+ * publishes characters and the web socket task drains them, each side only advancing its own
+ * sequence cursor so neither side needs a lock. A producer that finds the buffer full parks
+ * until the consumer drains it or the buffer is closed.
+ */
+public class OutputRingBuffer {
+
+    private final char[] buffer;
+    private final int mask;
+
+    //sequence of the next character to be written, only advanced by the producer
+    private final AtomicLong writeSequence = new AtomicLong(0);
+    //sequence of the next character to be read, only advanced by the consumer
+    private final AtomicLong readSequence = new AtomicLong(0);
+
+    private volatile boolean closed = false;
+    //producer parked waiting for space, unparked by the consumer after a drain
+    private volatile Thread waitingProducer;
+
+    /**
+     * creates a ring buffer rounded up to the next power of two
+     *
+     * @param capacity min number of characters the buffer can hold, at most 2^30
+     */
+    public OutputRingBuffer(int capacity) {
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Output buffer capacity " + capacity + " is larger than " + (1 << 30));
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.buffer = new char[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * publishes as many characters as there is room for. Called by the producer thread only.
+     *
+     * @param value  Array that is the source of characters
+     * @param offset The initial offset
+     * @param count  The length
+     * @return number of characters published
+     */
+    public int offer(char[] value, int offset, int count) {
+
+        long write = writeSequence.get();
+        int available = buffer.length - (int) (write - readSequence.get());
+        int len = Math.min(available, count);
+        if (len <= 0) {
+            return 0;
+        }
+
+        int index = (int) (write & mask);
+        int first = Math.min(len, buffer.length - index);
+        System.arraycopy(value, offset, buffer, index, first);
+        if (len > first) {
+            System.arraycopy(value, offset + first, buffer, 0, len - first);
+        }
+        //publish after the characters have been copied
+        writeSequence.lazySet(write + len);
+
+        return len;
+    }
+
+    /**
+     * appends all published characters to the builder. Called by the consumer thread only.
+     *
+     * @param out builder to append characters to
+     * @return number of characters drained
+     */
+    public int drainTo(StringBuilder out) {
+
+        long read = readSequence.get();
+        int len = (int) (writeSequence.get() - read);
+        if (len <= 0) {
+            return 0;
+        }
+
+        int index = (int) (read & mask);
+        int first = Math.min(len, buffer.length - index);
+        out.append(buffer, index, first);
+        if (len > first) {
+            out.append(buffer, 0, len - first);
+        }
+        //release space after the characters have been copied, ordered before the waiter is read
+        readSequence.set(read + len);
+        unparkProducer();
+
+        return len;
+    }
+
+    /**
+     * parks the producer until there is space in the buffer. Called by the producer thread only.
+     *
+     * @return false if the buffer was closed or the producer interrupted while waiting
+     */
+    public boolean awaitSpace() {
+
+        Thread current = Thread.currentThread();
+        waitingProducer = current;
+        try {
+            //check after registering so a drain in between is not missed
+            while (writeSequence.get() - readSequence.get() >= buffer.length) {
+                if (closed || current.isInterrupted()) {
+                    return false;
+                }
+                LockSupport.park(this);
+            }
+        } finally {
+            waitingProducer = null;
+        }
+        return !closed;
+    }
+
+    /**
+     * wakes the producer if it is waiting for space
+     */
+    private void unparkProducer() {
+        Thread waiter = waitingProducer;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * @return true if there are published characters that have not been drained
+     */
+    public boolean hasOutput() {
+        return writeSequence.get() > readSequence.get();
+    }
+
+    /**
+     * @return sequence of the next character to be written
+     */
+    public long getWriteSequence() {
+        return writeSequence.get();
+    }
+
+    /**
+     * @return sequence of the next character to be read
+     */
+    public long getReadSequence() {
+        return readSequence.get();
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * closes the buffer so a producer waiting for space will give up
+     */
+    public void close() {
+        closed = true;
+        unparkProducer();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -16,23 +16,41 @@
 package com.keybox.manage.util;
 
 import com.keybox.common.util.AppConfig;
-import java.util.Timer;
-import java.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * sets authorized keys on systems with given refresh interval
+ * sets authorized keys on systems with given refresh interval. Refresh requests are queued
+ * on a single scheduler and requests for a scope already waiting in the queue are merged,
+ * so only one refresh runs at a time and a system is never pushed to by two refreshes at once
  */
 public class RefreshAuthKeyUtil {
 
+	private static Logger log = LoggerFactory.getLogger(RefreshAuthKeyUtil.class);
+
+	public static final String ALL_SCOPE = "all";
+	public static final String CHANGED_SCOPE = "changed";
+	public static final String PROFILE_SCOPE = "profile:";
+	public static final String USER_SCOPE = "user:";
 
-	private Timer timer;
 	private static Integer minute = Integer.valueOf(AppConfig.getProperty("authKeysRefreshInterval"));
 
+	private static ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("keybox-refresh"));
+
+	//scopes waiting to be refreshed in the order requested
+	private static final Set<String> pendingScopeSet = new LinkedHashSet<>();
+
+	private static volatile String currentScope = null;
+
 
 	private RefreshAuthKeyUtil() {
-		//set interval
-		timer = new Timer();
-		timer.schedule(new RefreshAllSystemsTimerTask(), minute * 60 * 1000);
 	}
 
 	/**
@@ -40,7 +58,12 @@ public class RefreshAuthKeyUtil {
 	 */
 	public static void startRefreshAllSystemsTimerTask() {
 		if (SSHUtil.keyManagementEnabled && minute > 0) {
-			new RefreshAuthKeyUtil();
+			refreshExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					refreshAllSystems();
+				}
+			}, minute, minute, TimeUnit.MINUTES);
 		}
 	}
 
@@ -48,10 +71,14 @@ public class RefreshAuthKeyUtil {
 	 * Task for distributing keys to all systems
 	 */
 	public static void refreshAllSystems() {
+		queueRefresh(ALL_SCOPE);
+	}
 
-		Runnable run = new RefreshAllSystemsTask();
-		Thread thread = new Thread(run);
-		thread.start();
+	/**
+	 * Task for distributing keys to systems recorded in the key change journal
+	 */
+	public static void refreshChangedSystems() {
+		queueRefresh(CHANGED_SCOPE);
 	}
 
 	/**
@@ -60,10 +87,7 @@ public class RefreshAuthKeyUtil {
 	 * @param profileId profile id
 	 */
 	public static void refreshProfileSystems(Long profileId) {
-
-		Runnable run = new RefreshProfileSystemsTask(profileId);
-		Thread thread = new Thread(run);
-		thread.start();
+		queueRefresh(PROFILE_SCOPE + profileId);
 	}
 
 	/**
@@ -72,80 +96,89 @@ public class RefreshAuthKeyUtil {
 	 * @param userId user id
 	 */
 	public static void refreshUserSystems(Long userId) {
-
-		Runnable run = new RefreshUserSystemsTask(userId);
-		Thread thread = new Thread(run);
-		thread.start();
-
+		queueRefresh(USER_SCOPE + userId);
 	}
 
-
-
 	/**
-	 * Timer task for distributing keys to all systems
+	 * queues a refresh for the scope unless one is already waiting. A refresh of all systems
+	 * replaces any other waiting scope
+	 *
+	 * @param scope refresh scope
 	 */
-	private class RefreshAllSystemsTimerTask extends TimerTask {
-
-		@Override
-		public void run() {
-			//distribute all public keys
-			SSHUtil.distributePubKeysToAllSystems();
-			timer.cancel();
-
-			//create new timer and set interval
-			timer = new Timer();
-			timer.schedule(new RefreshAllSystemsTimerTask(), minute * 60 * 1000);
+	private static void queueRefresh(String scope) {
+
+		synchronized (pendingScopeSet) {
+			if (pendingScopeSet.contains(ALL_SCOPE) || pendingScopeSet.contains(scope)) {
+				return;
+			}
+			if (ALL_SCOPE.equals(scope)) {
+				pendingScopeSet.clear();
+			}
+			pendingScopeSet.add(scope);
 		}
+		refreshExecutor.execute(new RefreshTask());
 	}
 
-}
-
-
-/**
- * Task for distributing keys to all systems based on user
- */
-class RefreshUserSystemsTask implements Runnable {
-
-	Long userId;
-	public RefreshUserSystemsTask(Long userId){
-		this.userId=userId;
-	}
-
-	@Override
-	public void run() {
-		//distribute all public keys based on user
-		SSHUtil.distributePubKeysToUser(this.userId);
+	/**
+	 * @return number of refreshes waiting to run
+	 */
+	public static int getPendingRefreshCount() {
+		synchronized (pendingScopeSet) {
+			return pendingScopeSet.size();
+		}
 	}
-}
 
-
-/**
- * Task for distributing keys to all systems assigned to a profile
- */
-class RefreshProfileSystemsTask implements Runnable {
-
-	Long profileId;
-	public RefreshProfileSystemsTask(Long profileId){
-		this.profileId=profileId;
+	/**
+	 * @return scope of the refresh currently running or null if none
+	 */
+	public static String getCurrentRefreshScope() {
+		return currentScope;
 	}
 
-	@Override
-	public void run() {
-		//distribute all public keys based on profile
-		SSHUtil.distributePubKeysToProfile(this.profileId);
+	/**
+	 * stops the refresh scheduler
+	 */
+	public static void shutdown() {
+		refreshExecutor.shutdownNow();
 	}
-}
 
 
-/**
- * Task for distributing keys to all systems
- */
-class RefreshAllSystemsTask implements Runnable {
+	/**
+	 * Task that runs the next waiting refresh
+	 */
+	private static class RefreshTask implements Runnable {
 
-	@Override
-	public void run() {
-		//distribute all public keys
-		SSHUtil.distributePubKeysToAllSystems();
+		@Override
+		public void run() {
 
+			String scope;
+			synchronized (pendingScopeSet) {
+				Iterator<String> it = pendingScopeSet.iterator();
+				//already merged into a refresh that ran
+				if (!it.hasNext()) {
+					return;
+				}
+				scope = it.next();
+				it.remove();
+			}
+
+			currentScope = scope;
+			try {
+				if (ALL_SCOPE.equals(scope)) {
+					SSHUtil.distributePubKeysToAllSystems();
+				} else if (CHANGED_SCOPE.equals(scope)) {
+					SSHUtil.distributePubKeysToChangedSystems();
+				} else if (scope.startsWith(PROFILE_SCOPE)) {
+					SSHUtil.distributePubKeysToProfile(Long.parseLong(scope.substring(PROFILE_SCOPE.length())));
+				} else if (scope.startsWith(USER_SCOPE)) {
+					SSHUtil.distributePubKeysToUser(Long.parseLong(scope.substring(USER_SCOPE.length())));
+				}
+			} catch (Exception ex) {
+				log.error(ex.toString(), ex);
+			} finally {
+				currentScope = null;
+			}
+		}
 	}
+
 }
@@ -20,14 +20,25 @@ import com.keybox.common.util.AppConfig;
 import com.keybox.manage.db.*;
 import com.keybox.manage.model.*;
 import com.keybox.manage.task.SecureShellTask;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,9 +67,26 @@ public class SSHUtil {
 
 
 	public static final int SERVER_ALIVE_INTERVAL = StringUtils.isNumeric(AppConfig.getProperty("serverAliveInterval")) ? Integer.parseInt(AppConfig.getProperty("serverAliveInterval")) * 1000 : 60 * 1000;
-	public static final int SESSION_TIMEOUT = 60000;
+	public static final int SESSION_TIMEOUT = StringUtils.isNumeric(AppConfig.getProperty("sshConnectTimeout")) ? Integer.parseInt(AppConfig.getProperty("sshConnectTimeout")) * 1000 : 60000;
 	public static final int CHANNEL_TIMEOUT = 60000;
 
+	//instance ids handed out for terminals that are still connecting
+	private static Map<Long, Set<Integer>> reservedInstanceIdMap = new HashMap<>();
+
+	//parsed key type and fingerprint by hash of the public key, least recently used are evicted
+	private static final int KEY_INFO_CACHE_SIZE = 1000;
+	private static final Map<String, String[]> keyInfoCache = Collections.synchronizedMap(new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+			return size() > KEY_INFO_CACHE_SIZE;
+		}
+	});
+
+	//application key parsed with the stored passphrase, shared by all sessions until the key is rotated
+	private static ApplicationKey identityAppKey = null;
+	private static Identity appIdentity = null;
+	private static final AtomicLong identityLoadCount = new AtomicLong();
+
 	private SSHUtil() {
 	}
 
@@ -205,6 +233,61 @@ public class SSHUtil {
 		return passphrase;
 	}
 
+	/**
+	 * adds the application key to jsch, when no passphrase is provided the key decrypted with the
+	 * stored passphrase is parsed once and shared
+	 *
+	 * @param jsch       jsch instance
+	 * @param passphrase ssh key passphrase
+	 * @return application key
+	 */
+	private static ApplicationKey addApplicationIdentity(JSch jsch, String passphrase) throws JSchException {
+
+		ApplicationKey appKey = PrivateKeyDB.getApplicationKey();
+		//check to see if passphrase has been provided
+		if (passphrase == null || passphrase.trim().equals("")) {
+			Identity identity = getApplicationIdentity(appKey);
+			if (identity != null) {
+				jsch.addIdentity(identity, null);
+				return appKey;
+			}
+			passphrase = appKey.getPassphrase();
+			//check for null inorder to use key without passphrase
+			if (passphrase == null) {
+				passphrase = "";
+			}
+		}
+		jsch.addIdentity(appKey.getId().toString(), appKey.getPrivateKey().trim().getBytes(), appKey.getPublicKey().getBytes(), passphrase.getBytes());
+		return appKey;
+	}
+
+	/**
+	 * returns application key identity decrypted with the stored passphrase, parsed again only when the key changes
+	 *
+	 * @param appKey application key
+	 * @return identity or null if the key can not be decrypted with the stored passphrase
+	 */
+	private static synchronized Identity getApplicationIdentity(ApplicationKey appKey) throws JSchException {
+
+		if (appKey != identityAppKey) {
+			appIdentity = null;
+			identityAppKey = appKey;
+			KeyPair keyPair = KeyPair.load(new JSch(), appKey.getPrivateKey().trim().getBytes(), appKey.getPublicKey().getBytes());
+			identityLoadCount.incrementAndGet();
+			if (!keyPair.isEncrypted() || keyPair.decrypt(appKey.getPassphrase() == null ? new byte[0] : appKey.getPassphrase().getBytes(StandardCharsets.UTF_8))) {
+				appIdentity = new KeyPairIdentity(appKey.getId().toString(), keyPair);
+			}
+		}
+		return appIdentity;
+	}
+
+	/**
+	 * @return times the application key has been parsed into an identity
+	 */
+	public static long getIdentityLoadCount() {
+		return identityLoadCount.get();
+	}
+
 	/**
 	 * distributes authorized keys for host system
 	 *
@@ -220,17 +303,8 @@ public class SSHUtil {
 		Session session = null;
 		hostSystem.setStatusCd(HostSystem.SUCCESS_STATUS);
 		try {
-			ApplicationKey appKey = PrivateKeyDB.getApplicationKey();
-			//check to see if passphrase has been provided
-			if (passphrase == null || passphrase.trim().equals("")) {
-				passphrase = appKey.getPassphrase();
-				//check for null inorder to use key without passphrase
-				if (passphrase == null) {
-					passphrase = "";
-				}
-			}
 			//add private key
-			jsch.addIdentity(appKey.getId().toString(), appKey.getPrivateKey().trim().getBytes(), appKey.getPublicKey().getBytes(), passphrase.getBytes());
+			ApplicationKey appKey = addApplicationIdentity(jsch, passphrase);
 
 			//create session
 			session = jsch.getSession(hostSystem.getUser(), hostSystem.getHost(), hostSystem.getPort());
@@ -360,12 +434,7 @@ public class SSHUtil {
 
 			StringBuilder newKeysBuilder = new StringBuilder("");
 			if (keyManagementEnabled) {
-				//get keys assigned to system
-				List<String> assignedKeys = PublicKeyDB.getPublicKeysForSystem(hostSystem.getId());
-				for (String key : assignedKeys) {
-					newKeysBuilder.append(key.replace("\n", "").trim()).append("\n");
-				}
-				newKeysBuilder.append(appPubKey);
+				newKeysBuilder.append(getManagedAuthorizedKeys(hostSystem.getId(), appPubKey));
 			} else {
 				if (existingKeys.indexOf(appPubKey) < 0) {
 					newKeysBuilder.append(existingKeys).append("\n").append(appPubKey);
@@ -395,26 +464,85 @@ public class SSHUtil {
 	}
 
 	/**
-	 * return the next instance id based on ids defined in the session map
+	 * returns the authorized keys KeyBox manages for a system
+	 *
+	 * @param systemId     system id
+	 * @param appPublicKey application public key value
+	 * @return authorized keys content
+	 */
+	public static String getManagedAuthorizedKeys(Long systemId, String appPublicKey) {
+
+		StringBuilder keysBuilder = new StringBuilder("");
+		//get keys assigned to system
+		List<String> assignedKeys = PublicKeyDB.getPublicKeysForSystem(systemId);
+		for (String key : assignedKeys) {
+			keysBuilder.append(key.replace("\n", "").trim()).append("\n");
+		}
+		keysBuilder.append(appPublicKey.replace("\n", "").trim());
+		return keysBuilder.toString();
+	}
+
+	/**
+	 * reserves the next instance id based on ids defined in the session map and ids
+	 * reserved for terminals that are still connecting
 	 *
 	 * @param sessionId      session id
 	 * @param userSessionMap user session map
-	 * @return
+	 * @return instance id
 	 */
-	private static int getNextInstanceId(Long sessionId, Map<Long, UserSchSessions> userSessionMap) {
+	private static synchronized int reserveNextInstanceId(Long sessionId, Map<Long, UserSchSessions> userSessionMap) {
+
+		Set<Integer> reservedIds = reservedInstanceIdMap.get(sessionId);
+		if (reservedIds == null) {
+			reservedIds = new HashSet<>();
+			reservedInstanceIdMap.put(sessionId, reservedIds);
+		}
+		UserSchSessions userSchSessions = userSessionMap.get(sessionId);
 
 		Integer instanceId = 1;
-		if (userSessionMap.get(sessionId) != null) {
+		while (reservedIds.contains(instanceId)
+				|| (userSchSessions != null && userSchSessions.getSchSessionMap().get(instanceId) != null)) {
+			instanceId = instanceId + 1;
+		}
+		reservedIds.add(instanceId);
+		return instanceId;
 
-			for (Integer id : userSessionMap.get(sessionId).getSchSessionMap().keySet()) {
-				if (!id.equals(instanceId) && userSessionMap.get(sessionId).getSchSessionMap().get(instanceId) == null) {
-					return instanceId;
-				}
-				instanceId = instanceId + 1;
+	}
+
+	/**
+	 * adds the ssh session to the user session map and releases the reserved instance id
+	 *
+	 * @param sessionId      session id
+	 * @param instanceId     reserved instance id
+	 * @param schSession     ssh session or null if the connection failed
+	 * @param userSessionMap user session map
+	 */
+	private static synchronized void addSchSession(Long sessionId, Integer instanceId, SchSession schSession, Map<Long, UserSchSessions> userSessionMap) {
+
+		if (schSession != null) {
+			//get the server maps for user
+			UserSchSessions userSchSessions = userSessionMap.get(sessionId);
+
+			//if no user session create a new one
+			if (userSchSessions == null) {
+				userSchSessions = new UserSchSessions();
 			}
+			Map<Integer, SchSession> schSessionMap = userSchSessions.getSchSessionMap();
+
+			//add server information
+			schSessionMap.put(instanceId, schSession);
+			userSchSessions.setSchSessionMap(schSessionMap);
+			//add back to map
+			userSessionMap.put(sessionId, userSchSessions);
 		}
-		return instanceId;
 
+		Set<Integer> reservedIds = reservedInstanceIdMap.get(sessionId);
+		if (reservedIds != null) {
+			reservedIds.remove(instanceId);
+			if (reservedIds.isEmpty()) {
+				reservedInstanceIdMap.remove(sessionId);
+			}
+		}
 	}
 
 
@@ -433,7 +561,7 @@ public class SSHUtil {
 
 		JSch jsch = new JSch();
 
-		int instanceId = getNextInstanceId(sessionId, userSessionMap);
+		int instanceId = reserveNextInstanceId(sessionId, userSessionMap);
 		hostSystem.setStatusCd(HostSystem.SUCCESS_STATUS);
 		hostSystem.setInstanceId(instanceId);
 
@@ -441,17 +569,8 @@ public class SSHUtil {
 		SchSession schSession = null;
 
 		try {
-			ApplicationKey appKey = PrivateKeyDB.getApplicationKey();
-			//check to see if passphrase has been provided
-			if (passphrase == null || passphrase.trim().equals("")) {
-				passphrase = appKey.getPassphrase();
-				//check for null inorder to use key without passphrase
-				if (passphrase == null) {
-					passphrase = "";
-				}
-			}
 			//add private key
-			jsch.addIdentity(appKey.getId().toString(), appKey.getPrivateKey().trim().getBytes(), appKey.getPublicKey().getBytes(), passphrase.getBytes());
+			ApplicationKey appKey = addApplicationIdentity(jsch, passphrase);
 
 			//create session
 			Session session = jsch.getSession(hostSystem.getUser(), hostSystem.getHost(), hostSystem.getPort());
@@ -476,16 +595,19 @@ public class SSHUtil {
 			//new session output
 			SessionOutput sessionOutput = new SessionOutput(sessionId, hostSystem);
 
-			Runnable run = new SecureShellTask(sessionOutput, outFromChannel);
-			Thread thread = new Thread(run);
-			thread.start();
+			try {
+				TerminalPoolUtil.executeShellTask(new SecureShellTask(sessionOutput, outFromChannel));
+			} catch (RejectedExecutionException ex) {
+				session.disconnect();
+				throw new Exception("Max number of open terminals (" + TerminalPoolUtil.getShellPoolSize() + ") has been reached", ex);
+			}
 
 
 			OutputStream inputToChannel = channel.getOutputStream();
 			PrintStream commander = new PrintStream(inputToChannel, true);
 
 
-			channel.connect();
+			channel.connect(CHANNEL_TIMEOUT);
 
 			schSession = new SchSession();
 			schSession.setUserId(userId);
@@ -517,22 +639,7 @@ public class SSHUtil {
 
 
 		//add session to map
-		if (hostSystem.getStatusCd().equals(HostSystem.SUCCESS_STATUS)) {
-			//get the server maps for user
-			UserSchSessions userSchSessions = userSessionMap.get(sessionId);
-
-			//if no user session create a new one
-			if (userSchSessions == null) {
-				userSchSessions = new UserSchSessions();
-			}
-			Map<Integer, SchSession> schSessionMap = userSchSessions.getSchSessionMap();
-
-			//add server information
-			schSessionMap.put(instanceId, schSession);
-			userSchSessions.setSchSessionMap(schSessionMap);
-			//add back to map
-			userSessionMap.put(sessionId, userSchSessions);
-		}
+		addSchSession(sessionId, instanceId, hostSystem.getStatusCd().equals(HostSystem.SUCCESS_STATUS) ? schSession : null, userSessionMap);
 
 		SystemStatusDB.updateSystemStatus(hostSystem, userId);
 		SystemDB.updateSystem(hostSystem);
@@ -541,16 +648,93 @@ public class SSHUtil {
 	}
 
 
+	/**
+	 * open new ssh sessions on host systems in parallel. The number of concurrent connections is
+	 * bounded by the connect pool and each connection is bounded by the ssh connect timeout
+	 *
+	 * @param passphrase     key passphrase for instances
+	 * @param password       password for instances
+	 * @param userId         user id
+	 * @param sessionId      session id
+	 * @param hostSystemList host systems
+	 * @param userSessionMap user session map
+	 * @return status of systems
+	 */
+	public static List<HostSystem> openSSHTermsOnSystems(final String passphrase, final String password, final Long userId, final Long sessionId, List<HostSystem> hostSystemList, final Map<Long, UserSchSessions> userSessionMap) {
+
+		List<Future<HostSystem>> futureList = new ArrayList<>();
+		for (final HostSystem hostSystem : hostSystemList) {
+			futureList.add(TerminalPoolUtil.submitConnectTask(new Callable<HostSystem>() {
+				@Override
+				public HostSystem call() {
+					return openSSHTermOnSystem(passphrase, password, userId, sessionId, hostSystem, userSessionMap);
+				}
+			}));
+		}
+
+		List<HostSystem> statusList = new ArrayList<>();
+		for (int i = 0; i < futureList.size(); i++) {
+			HostSystem hostSystem = hostSystemList.get(i);
+			try {
+				hostSystem = futureList.get(i).get();
+			} catch (Exception ex) {
+				log.error(ex.toString(), ex);
+				hostSystem.setErrorMsg(ex.getMessage());
+				hostSystem.setStatusCd(HostSystem.GENERIC_FAIL_STATUS);
+				SystemStatusDB.updateSystemStatus(hostSystem, userId);
+			}
+			statusList.add(hostSystem);
+		}
+		return statusList;
+	}
+
+
+	/**
+	 * disconnects all open terminals so that the shell tasks reading from them can finish
+	 *
+	 * @param userSessionMap user session map
+	 */
+	public static void disconnectAllTerms(Map<Long, UserSchSessions> userSessionMap) {
+
+		for (UserSchSessions userSchSessions : userSessionMap.values()) {
+			for (SchSession schSession : userSchSessions.getSchSessionMap().values()) {
+				try {
+					if (schSession.getChannel() != null) {
+						schSession.getChannel().disconnect();
+					}
+					if (schSession.getSession() != null) {
+						schSession.getSession().disconnect();
+					}
+				} catch (Exception ex) {
+					log.error(ex.toString(), ex);
+				}
+			}
+			userSchSessions.getSchSessionMap().clear();
+		}
+		userSessionMap.clear();
+	}
+
+
 	/**
 	 * distributes public keys to all systems
 	 */
 	public static void distributePubKeysToAllSystems() {
 
 		if (keyManagementEnabled) {
-			List<HostSystem> hostSystemList = SystemDB.getAllSystems();
-			for (HostSystem hostSystem : hostSystemList) {
-				hostSystem = SSHUtil.authAndAddPubKey(hostSystem, null, null);
-				SystemDB.updateSystem(hostSystem);
+			KeyDistributionUtil.distribute("all systems", SystemDB.getAllSystems());
+		}
+	}
+
+
+	/**
+	 * distributes public keys to systems recorded in the key change journal
+	 */
+	public static void distributePubKeysToChangedSystems() {
+
+		if (keyManagementEnabled) {
+			List<Long> systemIdList = KeyChangeDB.getChangedSystemIds();
+			if (!systemIdList.isEmpty()) {
+				KeyDistributionUtil.distribute("changed systems", SystemDB.getSystems(systemIdList));
 			}
 		}
 	}
@@ -564,11 +748,7 @@ public class SSHUtil {
 	public static void distributePubKeysToProfile(Long profileId) {
 
 		if (keyManagementEnabled) {
-			List<HostSystem> hostSystemList = ProfileSystemsDB.getSystemsByProfile(profileId);
-			for (HostSystem hostSystem : hostSystemList) {
-				hostSystem = SSHUtil.authAndAddPubKey(hostSystem, null, null);
-				SystemDB.updateSystem(hostSystem);
-			}
+			KeyDistributionUtil.distribute("profile " + profileId, ProfileSystemsDB.getSystemsByProfile(profileId));
 		}
 	}
 
@@ -580,13 +760,16 @@ public class SSHUtil {
 	public static void distributePubKeysToUser(Long userId) {
 
 		if (keyManagementEnabled) {
+			//systems shared by more than one profile only need to be updated once
+			Map<Long, HostSystem> hostSystemMap = new LinkedHashMap<>();
 			for (Profile profile : UserProfileDB.getProfilesByUser(userId)) {
-				List<HostSystem> hostSystemList = ProfileSystemsDB.getSystemsByProfile(profile.getId());
-				for (HostSystem hostSystem : hostSystemList) {
-					hostSystem = SSHUtil.authAndAddPubKey(hostSystem, null, null);
-					SystemDB.updateSystem(hostSystem);
+				for (HostSystem hostSystem : ProfileSystemsDB.getSystemsByProfile(profile.getId())) {
+					if (!hostSystemMap.containsKey(hostSystem.getId())) {
+						hostSystemMap.put(hostSystem.getId(), hostSystem);
+					}
 				}
 			}
+			KeyDistributionUtil.distribute("user " + userId, new ArrayList<>(hostSystemMap.values()));
 		}
 	}
 
@@ -598,19 +781,10 @@ public class SSHUtil {
 	 * @return fingerprint of public key                     
 	 */
 	public static String getFingerprint(String publicKey) {
-		String fingerprint = null;
 		if (StringUtils.isNotEmpty(publicKey)) {
-			try {
-				KeyPair keyPair = KeyPair.load(new JSch(), null, publicKey.getBytes());
-				if (keyPair != null) {
-					fingerprint = keyPair.getFingerPrint();
-				}
-			} catch (JSchException ex) {
-				log.error(ex.toString(), ex);
-			}
-
+			return getKeyInfo(publicKey)[1];
 		}
-		return fingerprint;
+		return null;
 
 	}
 
@@ -621,32 +795,108 @@ public class SSHUtil {
 	 * @return fingerprint of public key                     
 	 */
 	public static String getKeyType(String publicKey) {
-		String keyType = null;
 		if (StringUtils.isNotEmpty(publicKey)) {
+			return getKeyInfo(publicKey)[0];
+		}
+		return null;
+
+	}
+
+	/**
+	 * returns key type and fingerprint, parsing the key only if it is not cached
+	 *
+	 * @param publicKey public key
+	 * @return array of key type and fingerprint
+	 */
+	private static String[] getKeyInfo(String publicKey) {
+		String hash = DigestUtils.sha256Hex(publicKey);
+		String[] keyInfo = keyInfoCache.get(hash);
+		if (keyInfo == null) {
+			keyInfo = new String[2];
 			try {
 				KeyPair keyPair = KeyPair.load(new JSch(), null, publicKey.getBytes());
 				if (keyPair != null) {
 					int type = keyPair.getKeyType();
 					if (KeyPair.DSA == type) {
-						keyType = "DSA";
+						keyInfo[0] = "DSA";
 					} else if (KeyPair.RSA == type) {
-						keyType = "RSA";
+						keyInfo[0] = "RSA";
 					} else if (KeyPair.ECDSA == type) {
-						keyType = "ECDSA";
+						keyInfo[0] = "ECDSA";
 					} else if (KeyPair.UNKNOWN == type) {
-						keyType = "UNKNOWN";
+						keyInfo[0] = "UNKNOWN";
 					} else if (KeyPair.ERROR == type) {
-						keyType = "ERROR";
+						keyInfo[0] = "ERROR";
 					}
+					keyInfo[1] = keyPair.getFingerPrint();
 				}
 
 			} catch (JSchException ex) {
 				log.error(ex.toString(), ex);
 			}
+			keyInfoCache.put(hash, keyInfo);
 		}
-		return keyType;
-
+		return keyInfo;
 	}
 
+	/**
+	 * Identity for a decrypted key pair that can be added to any number of jsch instances
+	 */
+	private static class KeyPairIdentity implements Identity {
+
+		String name;
+		KeyPair keyPair;
+		String algName;
+
+		KeyPairIdentity(String name, KeyPair keyPair) {
+			this.name = name;
+			this.keyPair = keyPair;
+			//public key blob starts with the length prefixed algorithm name
+			byte[] blob = keyPair.getPublicKeyBlob();
+			int length = ((blob[0] & 0xff) << 24) | ((blob[1] & 0xff) << 16) | ((blob[2] & 0xff) << 8) | (blob[3] & 0xff);
+			this.algName = new String(blob, 4, length, StandardCharsets.US_ASCII);
+		}
+
+		@Override
+		public boolean setPassphrase(byte[] passphrase) {
+			return true;
+		}
+
+		@Override
+		public byte[] getPublicKeyBlob() {
+			return keyPair.getPublicKeyBlob();
+		}
+
+		@Override
+		public byte[] getSignature(byte[] data) {
+			return keyPair.getSignature(data);
+		}
+
+		@Override
+		@Deprecated
+		public boolean decrypt() {
+			return true;
+		}
+
+		@Override
+		public String getAlgName() {
+			return algName;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isEncrypted() {
+			return false;
+		}
+
+		@Override
+		public void clear() {
+			//shared with other sessions, released when the application key changes
+		}
+	}
 
 }
@@ -15,21 +15,19 @@
  */
 package com.keybox.manage.util;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.keybox.common.util.AppConfig;
-import com.keybox.manage.db.SessionAuditDB;
-import com.keybox.manage.model.AuditWrapper;
 import com.keybox.manage.model.SessionOutput;
+import com.keybox.manage.model.TerminalLogEntry;
 import com.keybox.manage.model.User;
 import com.keybox.manage.model.UserSessionsOutput;
+import com.keybox.manage.task.SentOutputTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.commons.lang3.StringUtils;
 
-import java.sql.Connection;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility to is used to store the output for a session until the ajax call that brings it to the screen
@@ -38,10 +36,14 @@ public class SessionOutputUtil {
 
     private static Logger log = LoggerFactory.getLogger(SessionOutputUtil.class);
 
-    private static Map<Long, UserSessionsOutput> userSessionsOutputMap = new ConcurrentHashMap<>();
+    private static ConcurrentMap<Long, UserSessionsOutput> userSessionsOutputMap = new ConcurrentHashMap<>();
+    private static ConcurrentHashMap<Long, SentOutputTask> dispatcherMap = new ConcurrentHashMap<>();
     public final static boolean enableInternalAudit = "true".equals(AppConfig.getProperty("enableInternalAudit"));
-    private static Gson gson = new GsonBuilder().registerTypeAdapter(AuditWrapper.class, new SessionOutputSerializer()).create();
-    private static Logger systemAuditLogger = LoggerFactory.getLogger("com.keybox.manage.util.SystemAudit");
+
+    //upper bound for the configured buffer size, a ring buffer is sized to a power of two that must fit in an int
+    private static final int MAX_OUTPUT_BUFFER_SIZE = 1 << 24;
+    //max number of characters buffered per terminal before the shell task waits on the web socket
+    public static final int OUTPUT_BUFFER_SIZE = StringUtils.isNumeric(AppConfig.getProperty("outputBufferSize")) ? Math.min(MAX_OUTPUT_BUFFER_SIZE, Math.max(2, Integer.parseInt(AppConfig.getProperty("outputBufferSize")))) : 65536;
 
     private SessionOutputUtil() {
     }
@@ -54,10 +56,53 @@ public class SessionOutputUtil {
     public static void removeUserSession(Long sessionId) {
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionId);
         if (userSessionsOutput != null) {
+            for (SessionOutput sessionOutput : userSessionsOutput.getSessionOutputMap().values()) {
+                sessionOutput.getOutputBuffer().close();
+            }
             userSessionsOutput.getSessionOutputMap().clear();
         }
         userSessionsOutputMap.remove(sessionId);
 
+        SentOutputTask dispatcher = dispatcherMap.remove(sessionId);
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+
+    }
+
+    /**
+     * registers the task that sends output to the web socket for the session
+     *
+     * @param sessionId  session id
+     * @param dispatcher task that sends output for the session
+     */
+    public static void addDispatcher(Long sessionId, SentOutputTask dispatcher) {
+        SentOutputTask previous = dispatcherMap.put(sessionId, dispatcher);
+        if (previous != null && previous != dispatcher) {
+            previous.stop();
+        }
+    }
+
+    /**
+     * removes the task that sends output to the web socket for the session
+     *
+     * @param sessionId  session id
+     * @param dispatcher task that sends output for the session
+     */
+    public static void removeDispatcher(Long sessionId, SentOutputTask dispatcher) {
+        dispatcherMap.remove(sessionId, dispatcher);
+    }
+
+    /**
+     * signals the task for the session that output is ready to be sent
+     *
+     * @param sessionId session id
+     */
+    private static void signalDispatcher(Long sessionId) {
+        SentOutputTask dispatcher = dispatcherMap.get(sessionId);
+        if (dispatcher != null) {
+            dispatcher.signal();
+        }
     }
 
     /**
@@ -70,7 +115,10 @@ public class SessionOutputUtil {
 
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionId);
         if (userSessionsOutput != null) {
-            userSessionsOutput.getSessionOutputMap().remove(instanceId);
+            SessionOutput sessionOutput = userSessionsOutput.getSessionOutputMap().remove(instanceId);
+            if (sessionOutput != null) {
+                sessionOutput.getOutputBuffer().close();
+            }
         }
     }
 
@@ -81,19 +129,25 @@ public class SessionOutputUtil {
      */
     public static void addOutput(SessionOutput sessionOutput) {
 
+        sessionOutput.setOutputBuffer(new OutputRingBuffer(OUTPUT_BUFFER_SIZE));
+
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionOutput.getSessionId());
         if (userSessionsOutput == null) {
-            userSessionsOutputMap.put(sessionOutput.getSessionId(), new UserSessionsOutput());
-            userSessionsOutput = userSessionsOutputMap.get(sessionOutput.getSessionId());
+            //terminals for a session may be opened concurrently, keep whichever map was added first
+            UserSessionsOutput newOutput = new UserSessionsOutput();
+            userSessionsOutput = userSessionsOutputMap.putIfAbsent(sessionOutput.getSessionId(), newOutput);
+            if (userSessionsOutput == null) {
+                userSessionsOutput = newOutput;
+            }
         }
         userSessionsOutput.getSessionOutputMap().put(sessionOutput.getInstanceId(), sessionOutput);
 
-
     }
 
 
     /**
-     * adds a new output
+     * adds a new output. If the output buffer is full the calling shell task waits
+     * until the web socket task has drained it or the terminal has been closed
      *
      * @param sessionId    session id
      * @param instanceId id of host system instance
@@ -105,7 +159,19 @@ public class SessionOutputUtil {
 
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionId);
         if (userSessionsOutput != null) {
-            userSessionsOutput.getSessionOutputMap().get(instanceId).getOutput().append(value, offset, count);
+            SessionOutput sessionOutput = userSessionsOutput.getSessionOutputMap().get(instanceId);
+            if (sessionOutput != null) {
+                OutputRingBuffer outputBuffer = sessionOutput.getOutputBuffer();
+                while (count > 0 && !outputBuffer.isClosed()) {
+                    int published = outputBuffer.offer(value, offset, count);
+                    offset = offset + published;
+                    count = count - published;
+                    signalDispatcher(sessionId);
+                    if (count > 0 && !outputBuffer.awaitSpace()) {
+                        break;
+                    }
+                }
+            }
         }
 
     }
@@ -118,7 +184,7 @@ public class SessionOutputUtil {
      * @param user user auth object
      * @return session output list
      */
-    public static List<SessionOutput> getOutput(Connection con, Long sessionId, User user) {
+    public static List<SessionOutput> getOutput(Long sessionId, User user) {
         List<SessionOutput> outputList = new ArrayList<>();
 
         UserSessionsOutput userSessionsOutput = userSessionsOutputMap.get(sessionId);
@@ -129,19 +195,21 @@ public class SessionOutputUtil {
                 //get output chars and set to output
                 try {
                     SessionOutput sessionOutput = userSessionsOutput.getSessionOutputMap().get(key);
-                    if (sessionOutput!=null && sessionOutput.getOutput() != null
-                            && StringUtils.isNotEmpty(sessionOutput.getOutput())) {
+                    if (sessionOutput == null) {
+                        continue;
+                    }
+                    //reuse output builder and drain what the shell task has published
+                    sessionOutput.getOutput().setLength(0);
+                    if (sessionOutput.getOutputBuffer().drainTo(sessionOutput.getOutput()) > 0) {
 
                         outputList.add(sessionOutput);
 
                         //send to audit logger
-                        systemAuditLogger.info(gson.toJson(new AuditWrapper(user, sessionOutput)));
+                        SystemAuditLogger.log(user, sessionOutput);
 
                         if(enableInternalAudit) {
-                            SessionAuditDB.insertTerminalLog(con, sessionOutput);
+                            TerminalLogWriter.write(new TerminalLogEntry(sessionOutput));
                         }
-
-                        userSessionsOutput.getSessionOutputMap().put(key, new SessionOutput(sessionId, sessionOutput));
                     }
                 } catch (Exception ex) {
                     log.error(ex.toString(), ex);
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.model.SessionOutput;
+import com.keybox.manage.model.User;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends terminal output to the system audit logger on a background thread. Records are
+ * serialized to JSON on the calling thread with a reused buffer and queued, so a slow appender
+ * (e.g. a socket to a log collector) only holds up the audit thread and not the terminals.
+ * Records are logged on the calling thread when the background logger is not running
+ */
+public class SystemAuditLogger {
+
+    private static Logger log = LoggerFactory.getLogger(SystemAuditLogger.class);
+    private static Logger systemAuditLogger = LoggerFactory.getLogger("com.keybox.manage.util.SystemAudit");
+
+    public static final String POLICY_BLOCK = "block";
+    public static final String POLICY_DROP = "drop";
+
+    public static final int QUEUE_SIZE = StringUtils.isNumeric(AppConfig.getProperty("systemAuditQueueSize")) ? Math.max(1, Integer.parseInt(AppConfig.getProperty("systemAuditQueueSize"))) : 10000;
+    //drop by default so a slow appender cannot stall the terminals, block is opt-in
+    public static final String QUEUE_POLICY = POLICY_BLOCK.equals(AppConfig.getProperty("systemAuditQueuePolicy")) ? POLICY_BLOCK : POLICY_DROP;
+    //max records taken from the queue at a time
+    private static final int BATCH_SIZE = 500;
+    private static final long POLL_INTERVAL = 1000;
+
+    private static final BlockingQueue<String> recordQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    //buffer each thread serializes records into
+    private static final ThreadLocal<StringBuilder> recordBuilder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    private static AtomicLong loggedCount = new AtomicLong();
+    private static AtomicLong droppedCount = new AtomicLong();
+    private static AtomicLong failedCount = new AtomicLong();
+
+    private static volatile boolean running = false;
+    private static Thread loggerThread = null;
+
+    private SystemAuditLogger() {
+    }
+
+    /**
+     * starts the background logger if the system audit logger is enabled
+     */
+    public static synchronized void start() {
+        if (loggerThread == null && isEnabled()) {
+            running = true;
+            loggerThread = new NamedThreadFactory("keybox-system-audit").newThread(new LoggerTask());
+            loggerThread.start();
+        }
+    }
+
+    /**
+     * stops the background logger after the queued records have been logged
+     */
+    public static synchronized void shutdown() {
+        if (loggerThread != null) {
+            running = false;
+            loggerThread.interrupt();
+            try {
+                loggerThread.join(10000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            loggerThread = null;
+        }
+    }
+
+    /**
+     * @return true if the system audit logger has an appender at info level
+     */
+    public static boolean isEnabled() {
+        return systemAuditLogger.isInfoEnabled();
+    }
+
+    /**
+     * serializes the output and queues it to be logged based on the queue policy, or logs it
+     * if the background logger has not been started or has been shut down
+     *
+     * @param user          user the output was sent to
+     * @param sessionOutput terminal output
+     */
+    public static void log(User user, SessionOutput sessionOutput) {
+
+        if (!running && !isEnabled()) {
+            return;
+        }
+
+        StringBuilder record = recordBuilder.get();
+        record.setLength(0);
+        record.append('{');
+        appendField(record, "user_id", user.getId());
+        appendField(record, "username", user.getUsername());
+        appendField(record, "user_type", user.getUserType());
+        appendField(record, "first_nm", user.getFirstNm());
+        appendField(record, "last_nm", user.getLastNm());
+        appendField(record, "email", user.getEmail());
+        appendField(record, "session_id", sessionOutput.getSessionId());
+        appendField(record, "instance_id", sessionOutput.getInstanceId());
+        appendField(record, "host_id", sessionOutput.getId());
+        appendField(record, "host", sessionOutput.getDisplayLabel());
+        appendField(record, "output", sessionOutput.getOutput());
+        appendField(record, "timestamp", System.currentTimeMillis());
+        record.append('}');
+
+        if (!running) {
+            logRecord(record.toString());
+        } else if (POLICY_BLOCK.equals(QUEUE_POLICY)) {
+            try {
+                //stop waiting on the queue if the background logger is shut down
+                while (!recordQueue.offer(record.toString(), POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        logRecord(record.toString());
+                        break;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                droppedCount.incrementAndGet();
+            }
+        } else if (!recordQueue.offer(record.toString())) {
+            if (droppedCount.incrementAndGet() % 1000 == 1) {
+                log.warn("System audit queue is full, dropped " + droppedCount.get() + " records");
+            }
+        }
+    }
+
+    /**
+     * sends the record to the system audit logger
+     *
+     * @param record serialized terminal output
+     */
+    private static void logRecord(String record) {
+        try {
+            systemAuditLogger.info(record);
+            loggedCount.incrementAndGet();
+        } catch (Exception ex) {
+            failedCount.incrementAndGet();
+            log.error(ex.toString(), ex);
+        }
+    }
+
+    /**
+     * appends a number field, fields with null values are left out
+     */
+    private static void appendField(StringBuilder record, String name, Number value) {
+        if (value != null) {
+            appendName(record, name);
+            record.append(value.longValue());
+        }
+    }
+
+    /**
+     * appends a string field, fields with null values are left out
+     */
+    private static void appendField(StringBuilder record, String name, CharSequence value) {
+        if (value != null) {
+            appendName(record, name);
+            record.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        record.append("\\\"");
+                        break;
+                    case '\\':
+                        record.append("\\\\");
+                        break;
+                    case '\n':
+                        record.append("\\n");
+                        break;
+                    case '\r':
+                        record.append("\\r");
+                        break;
+                    case '\t':
+                        record.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                            record.append("\\u");
+                            String hex = Integer.toHexString(c);
+                            for (int j = hex.length(); j < 4; j++) {
+                                record.append('0');
+                            }
+                            record.append(hex);
+                        } else {
+                            record.append(c);
+                        }
+                }
+            }
+            record.append('"');
+        }
+    }
+
+    private static void appendName(StringBuilder record, String name) {
+        if (record.length() > 1) {
+            record.append(',');
+        }
+        record.append('"').append(name).append("\":");
+    }
+
+    public static int getQueueSize() {
+        return recordQueue.size();
+    }
+
+    public static long getLoggedCount() {
+        return loggedCount.get();
+    }
+
+    public static long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public static long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Task that logs queued records until stopped and the queue is empty
+     */
+    private static class LoggerTask implements Runnable {
+
+        @Override
+        public void run() {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            while (running || !recordQueue.isEmpty()) {
+                try {
+                    String record = running ? recordQueue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS) : recordQueue.poll();
+                    if (record == null) {
+                        continue;
+                    }
+                    batch.add(record);
+                    recordQueue.drainTo(batch, BATCH_SIZE - 1);
+                    for (String queued : batch) {
+                        logRecord(queued);
+                    }
+                    batch.clear();
+
+                } catch (InterruptedException ex) {
+                    //stopping, log what is left in the queue
+                }
+            }
+        }
+    }
+}
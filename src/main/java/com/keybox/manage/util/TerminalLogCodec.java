@@ -0,0 +1,103 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.manage.model.TerminalLogChunk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes terminal log chunks as deflate compressed blobs. The blob holds the time index
+ * followed by the UTF-8 output
+ */
+public class TerminalLogCodec {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private TerminalLogCodec() {
+    }
+
+    /**
+     * compresses the chunk output and time index
+     *
+     * @param chunk terminal log chunk
+     * @return compressed blob
+     * @throws IOException
+     */
+    public static byte[] encode(TerminalLogChunk chunk) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunk.getOutput().length() / 4 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(chunk.getIndexSize());
+            //index is written as differences from the previous entry so it compresses well
+            int offset = 0;
+            int time = 0;
+            for (int i = 0; i < chunk.getIndexSize(); i++) {
+                out.writeInt(chunk.getIndexOffset(i) - offset);
+                out.writeInt(chunk.getIndexTime(i) - time);
+                offset = chunk.getIndexOffset(i);
+                time = chunk.getIndexTime(i);
+            }
+            byte[] output = chunk.getOutput().toString().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(output.length);
+            out.write(output);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * decompresses the output and time index into the chunk
+     *
+     * @param blob  compressed blob
+     * @param chunk terminal log chunk to set output and time index
+     * @return terminal log chunk
+     * @throws IOException
+     */
+    public static TerminalLogChunk decode(byte[] blob, TerminalLogChunk chunk) throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(blob)))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported terminal log chunk version " + version);
+            }
+            int indexSize = in.readInt();
+            int offset = 0;
+            int time = 0;
+            for (int i = 0; i < indexSize; i++) {
+                offset += in.readInt();
+                time += in.readInt();
+                chunk.addIndex(offset, time);
+            }
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            chunk.getOutput().setLength(0);
+            chunk.getOutput().append(new String(output, StandardCharsets.UTF_8));
+        }
+        return chunk;
+    }
+}
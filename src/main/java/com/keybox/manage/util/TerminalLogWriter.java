@@ -0,0 +1,541 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.google.gson.Gson;
+import com.keybox.common.util.AppConfig;
+import com.keybox.manage.db.SessionAuditDB;
+import com.keybox.manage.db.TerminalLogSearchDB;
+import com.keybox.manage.model.TerminalLogChunk;
+import com.keybox.manage.model.TerminalLogEntry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes terminal output to the terminal log on a background thread. Output is queued by the
+ * web socket tasks and appended to a chunk for each session terminal. Chunks are compressed and
+ * inserted once full or too old, one transaction per batch. When the queue is full output is
+ * either waited on, dropped or spilled to disk and written once the queue drains
+ */
+public class TerminalLogWriter {
+
+    private static Logger log = LoggerFactory.getLogger(TerminalLogWriter.class);
+
+    public static final String POLICY_BLOCK = "block";
+    public static final String POLICY_DROP = "drop";
+    public static final String POLICY_SPILL = "spill";
+
+    //max number of terminal outputs waiting to be written
+    public static final int QUEUE_SIZE = StringUtils.isNumeric(AppConfig.getProperty("auditQueueSize")) ? Integer.parseInt(AppConfig.getProperty("auditQueueSize")) : 10000;
+    //max number of terminal outputs inserted in one transaction
+    public static final int BATCH_SIZE = StringUtils.isNumeric(AppConfig.getProperty("auditBatchSize")) ? Math.max(1, Integer.parseInt(AppConfig.getProperty("auditBatchSize"))) : 500;
+    //what to do with output when the queue is full
+    public static final String QUEUE_POLICY = StringUtils.isNotEmpty(AppConfig.getProperty("auditQueuePolicy")) ? AppConfig.getProperty("auditQueuePolicy").trim().toLowerCase() : POLICY_BLOCK;
+    //number of characters of output stored in a chunk
+    public static final int CHUNK_SIZE = StringUtils.isNumeric(AppConfig.getProperty("auditChunkSize")) ? Math.max(1, Integer.parseInt(AppConfig.getProperty("auditChunkSize"))) : 65536;
+    //time in seconds output is held in a chunk before it is written
+    public static final int CHUNK_MAX_AGE = StringUtils.isNumeric(AppConfig.getProperty("auditChunkMaxAge")) ? Integer.parseInt(AppConfig.getProperty("auditChunkMaxAge")) : 30;
+
+    private static final File SPILL_FILE = new File(SSHUtil.KEY_PATH, "terminal_log.spill");
+    private static final File SPILL_PROCESSING_FILE = new File(SSHUtil.KEY_PATH, "terminal_log.spill.processing");
+    //number of lines of the processing file already written, so a retried recovery does not write them twice
+    private static final File SPILL_OFFSET_FILE = new File(SSHUtil.KEY_PATH, "terminal_log.spill.offset");
+    //time in milliseconds the writer waits for output before checking for spilled output
+    private static final long POLL_INTERVAL = 1000;
+    //chunks or legacy session terminals added to the full text index each time the queue is idle
+    private static final int INDEX_BACKLOG_SIZE = 8;
+
+    private static BlockingQueue<TerminalLogEntry> logQueue = new ArrayBlockingQueue<>(Math.max(1, QUEUE_SIZE));
+    private static Gson gson = new Gson();
+    private static final Object spillLock = new Object();
+    private static BufferedWriter spillWriter = null;
+
+    //chunks being filled for each session terminal, only used by the writer thread
+    private static Map<String, TerminalLogChunk> openChunkMap = new LinkedHashMap<>();
+    //replay keyframe state for each session terminal, only used by the writer thread
+    private static Map<String, KeyframeState> keyframeStateMap = new HashMap<>();
+    //max number of chars of the screen stored with a keyframe
+    private static final int MAX_SCREEN_LENGTH = 16384;
+    //time in milliseconds keyframe state is kept for a terminal with no output
+    private static final long KEYFRAME_STATE_IDLE = 60 * 60 * 1000L;
+
+    private static AtomicLong writtenCount = new AtomicLong();
+    private static AtomicLong droppedCount = new AtomicLong();
+    private static AtomicLong spilledCount = new AtomicLong();
+    private static AtomicLong failedCount = new AtomicLong();
+    private static AtomicLong chunkCount = new AtomicLong();
+
+    private static volatile boolean running = false;
+    private static volatile boolean backlogIndexed = false;
+    private static Thread writerThread = null;
+
+    private TerminalLogWriter() {
+    }
+
+    /**
+     * starts the background writer
+     */
+    public static synchronized void start() {
+        if (writerThread == null) {
+            running = true;
+            writerThread = new NamedThreadFactory("keybox-audit").newThread(new WriterTask());
+            writerThread.start();
+        }
+    }
+
+    /**
+     * stops the background writer after the queued output has been written
+     */
+    public static synchronized void shutdown() {
+        if (writerThread != null) {
+            running = false;
+            writerThread.interrupt();
+            try {
+                writerThread.join(10000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            writerThread = null;
+        }
+        synchronized (spillLock) {
+            closeSpillWriter();
+        }
+    }
+
+    /**
+     * queues terminal output to be written based on the queue policy
+     *
+     * @param logEntry terminal output
+     */
+    public static void write(TerminalLogEntry logEntry) {
+
+        if (POLICY_DROP.equals(QUEUE_POLICY)) {
+            if (!logQueue.offer(logEntry)) {
+                if (droppedCount.incrementAndGet() % 1000 == 1) {
+                    log.warn("Terminal log queue is full, dropped " + droppedCount.get() + " outputs");
+                }
+            }
+        } else if (POLICY_SPILL.equals(QUEUE_POLICY)) {
+            if (!logQueue.offer(logEntry)) {
+                spill(logEntry);
+            }
+        } else {
+            try {
+                logQueue.put(logEntry);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                droppedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * appends terminal output to the spill file
+     *
+     * @param logEntry terminal output
+     */
+    private static void spill(TerminalLogEntry logEntry) {
+        synchronized (spillLock) {
+            try {
+                if (spillWriter == null) {
+                    spillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(SPILL_FILE, true), StandardCharsets.UTF_8));
+                }
+                spillWriter.write(gson.toJson(logEntry));
+                spillWriter.newLine();
+                spillWriter.flush();
+                spilledCount.incrementAndGet();
+            } catch (IOException ex) {
+                log.error(ex.toString(), ex);
+                droppedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static void closeSpillWriter() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException ex) {
+                log.error(ex.toString(), ex);
+            }
+            spillWriter = null;
+        }
+    }
+
+    /**
+     * writes output from the spill file to the terminal log. Spilled output is older than output
+     * queued once the queue had room, so it is written to chunks of its own that replay orders by
+     * start time rather than appended to the open chunks of the live output. Each batch is written
+     * in one transaction and the number of lines written is saved after it, if a batch fails the
+     * spill file is kept and recovery resumes after the last written batch on the next idle poll
+     */
+    private static void recoverSpill() {
+
+        synchronized (spillLock) {
+            //output left by a recovery that did not finish is processed first
+            if (!SPILL_PROCESSING_FILE.exists()) {
+                if (!SPILL_FILE.exists()) {
+                    return;
+                }
+                closeSpillWriter();
+                //an offset is only kept for the processing file it was saved for
+                if (SPILL_OFFSET_FILE.exists() && !SPILL_OFFSET_FILE.delete()) {
+                    log.error("Unable to delete terminal log spill offset file " + SPILL_OFFSET_FILE.getPath());
+                    return;
+                }
+                if (!SPILL_FILE.renameTo(SPILL_PROCESSING_FILE)) {
+                    log.error("Unable to process terminal log spill file " + SPILL_FILE.getPath());
+                    return;
+                }
+            }
+        }
+
+        Map<String, KeyframeState> recoveredStateMap = new HashMap<>();
+        List<TerminalLogEntry> batch = new ArrayList<>(BATCH_SIZE);
+        long offset = readSpillOffset();
+        long lineCount = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(SPILL_PROCESSING_FILE), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                if (lineCount <= offset) {
+                    continue;
+                }
+                if (StringUtils.isNotBlank(line)) {
+                    try {
+                        batch.add(gson.fromJson(line, TerminalLogEntry.class));
+                    } catch (Exception ex) {
+                        //a line cut short when the spill was written can not be recovered
+                        log.error("Skipping unreadable terminal log spill line " + lineCount, ex);
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                if (batch.size() >= BATCH_SIZE) {
+                    if (!writeRecoveredBatch(batch, recoveredStateMap)) {
+                        return;
+                    }
+                    writeSpillOffset(lineCount);
+                }
+            }
+            if (!writeRecoveredBatch(batch, recoveredStateMap)) {
+                return;
+            }
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+            return;
+        }
+        if (!SPILL_PROCESSING_FILE.delete()) {
+            log.error("Unable to delete terminal log spill file " + SPILL_PROCESSING_FILE.getPath());
+        } else if (SPILL_OFFSET_FILE.exists() && !SPILL_OFFSET_FILE.delete()) {
+            log.error("Unable to delete terminal log spill offset file " + SPILL_OFFSET_FILE.getPath());
+        }
+    }
+
+    /**
+     * writes a batch of recovered output as chunks in a single transaction and clears the batch
+     *
+     * @param batch    recovered terminal output
+     * @param stateMap keyframe state for each recovered session terminal
+     * @return true if the chunks were written
+     */
+    private static boolean writeRecoveredBatch(List<TerminalLogEntry> batch, Map<String, KeyframeState> stateMap) {
+        Map<String, TerminalLogChunk> chunkMap = new LinkedHashMap<>();
+        List<TerminalLogChunk> sealedList = new ArrayList<>();
+        appendBatch(batch, chunkMap, stateMap, sealedList);
+        //chunks are not held open across batches so the saved offset covers all written output
+        sealedList.addAll(chunkMap.values());
+        return writeChunks(sealedList);
+    }
+
+    /**
+     * @return number of lines of the processing file already written
+     */
+    private static long readSpillOffset() {
+        if (SPILL_OFFSET_FILE.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(SPILL_OFFSET_FILE), StandardCharsets.UTF_8))) {
+                String offset = StringUtils.trim(reader.readLine());
+                if (StringUtils.isNumeric(offset) && StringUtils.isNotEmpty(offset)) {
+                    return Long.parseLong(offset);
+                }
+            } catch (Exception ex) {
+                log.error(ex.toString(), ex);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * saves the number of lines of the processing file written, replacing the offset file in one rename
+     *
+     * @param offset number of lines written
+     */
+    private static void writeSpillOffset(long offset) {
+        File tmpFile = new File(SPILL_OFFSET_FILE.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+            writer.write(Long.toString(offset));
+        } catch (IOException ex) {
+            log.error(ex.toString(), ex);
+            return;
+        }
+        if (!tmpFile.renameTo(SPILL_OFFSET_FILE)) {
+            log.error("Unable to save terminal log spill offset " + SPILL_OFFSET_FILE.getPath());
+        }
+    }
+
+    /**
+     * appends the batch to the chunks for each session terminal, writes the chunks that are
+     * full or too old and clears the batch
+     *
+     * @param batch terminal output to write
+     */
+    private static void writeBatch(List<TerminalLogEntry> batch) {
+
+        List<TerminalLogChunk> sealedList = new ArrayList<>();
+        appendBatch(batch, openChunkMap, keyframeStateMap, sealedList);
+
+        long idleBefore = System.currentTimeMillis() - KEYFRAME_STATE_IDLE;
+        Iterator<KeyframeState> it = keyframeStateMap.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().lastTm < idleBefore) {
+                it.remove();
+            }
+        }
+
+        sealChunks(sealedList, System.currentTimeMillis() - CHUNK_MAX_AGE * 1000L);
+        writeChunks(sealedList);
+    }
+
+    /**
+     * appends the batch to the chunks for each session terminal and clears the batch
+     *
+     * @param batch terminal output to append
+     * @param chunkMap chunks being filled for each session terminal
+     * @param stateMap keyframe state for each session terminal
+     * @param sealedList list to add chunks that are full to
+     */
+    private static void appendBatch(List<TerminalLogEntry> batch, Map<String, TerminalLogChunk> chunkMap,
+                                    Map<String, KeyframeState> stateMap, List<TerminalLogChunk> sealedList) {
+
+        for (TerminalLogEntry logEntry : batch) {
+            String key = logEntry.getSessionId() + "-" + logEntry.getInstanceId();
+            TerminalLogChunk chunk = chunkMap.get(key);
+            if (chunk != null && chunk.getOutput().length() > 0
+                    && chunk.getOutput().length() + logEntry.getOutput().length() > CHUNK_SIZE) {
+                sealedList.add(chunk);
+                chunk = null;
+            }
+            KeyframeState keyframeState = stateMap.get(key);
+            if (keyframeState == null) {
+                keyframeState = new KeyframeState();
+                stateMap.put(key, keyframeState);
+            }
+            if (chunk == null) {
+                chunk = new TerminalLogChunk(logEntry);
+                //each chunk is a keyframe replay can start from without reading earlier output
+                chunk.setNormalizerState(keyframeState.normalizer.getState());
+                chunk.setScreen(keyframeState.getScreen());
+                chunkMap.put(key, chunk);
+            }
+            chunk.append(logEntry.getOutput(), logEntry.getLogTm());
+            keyframeState.append(logEntry.getOutput(), logEntry.getLogTm());
+        }
+        batch.clear();
+    }
+
+    /**
+     * removes chunks started before the given time from the open chunks
+     *
+     * @param sealedList list to add the removed chunks to
+     * @param startedBefore time in milliseconds
+     */
+    private static void sealChunks(List<TerminalLogChunk> sealedList, long startedBefore) {
+        Iterator<TerminalLogChunk> it = openChunkMap.values().iterator();
+        while (it.hasNext()) {
+            TerminalLogChunk chunk = it.next();
+            if (chunk.getStartTm() < startedBefore) {
+                sealedList.add(chunk);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * inserts the chunks in a single transaction
+     *
+     * @param chunkList terminal log chunks to insert
+     * @return true if the chunks were inserted
+     */
+    private static boolean writeChunks(List<TerminalLogChunk> chunkList) {
+        if (chunkList.isEmpty()) {
+            return true;
+        }
+        boolean written = false;
+        int entryCount = 0;
+        for (TerminalLogChunk chunk : chunkList) {
+            entryCount += chunk.getIndexSize();
+        }
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            if (SessionAuditDB.insertTerminalLogChunks(con, chunkList)) {
+                writtenCount.addAndGet(entryCount);
+                chunkCount.addAndGet(chunkList.size());
+                written = true;
+            } else {
+                failedCount.addAndGet(entryCount);
+            }
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+            failedCount.addAndGet(entryCount);
+        } finally {
+            DBUtils.closeConn(con);
+        }
+        return written;
+    }
+
+    /**
+     * adds output written before the full text index existed to the index, a few chunks at a time
+     */
+    private static void indexBacklog() {
+        if (backlogIndexed) {
+            return;
+        }
+        Connection con = null;
+        try {
+            con = DBUtils.getConn();
+            backlogIndexed = TerminalLogSearchDB.indexBacklog(con, INDEX_BACKLOG_SIZE) < INDEX_BACKLOG_SIZE;
+        } catch (Exception ex) {
+            log.error(ex.toString(), ex);
+        } finally {
+            DBUtils.closeConn(con);
+        }
+    }
+
+    public static boolean isBacklogIndexed() {
+        return backlogIndexed;
+    }
+
+    public static int getQueueSize() {
+        return logQueue.size();
+    }
+
+    public static long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public static long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public static long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    public static long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public static long getChunkCount() {
+        return chunkCount.get();
+    }
+
+    /**
+     * Normalizer state and normalized partial line after the output written for a terminal
+     */
+    private static class KeyframeState {
+
+        TerminalOutputNormalizer normalizer = new TerminalOutputNormalizer();
+        //starts with a line break so backspaces stop at the start of the first line
+        StringBuilder screen = new StringBuilder("\n");
+        long lastTm = System.currentTimeMillis();
+
+        void append(String output, long logTm) {
+            normalizer.normalize(output, screen);
+            //trimmed once it has doubled so appending stays linear in the output
+            if (screen.length() > MAX_SCREEN_LENGTH * 2) {
+                int lineStart = screen.indexOf("\n", screen.length() - MAX_SCREEN_LENGTH);
+                screen.delete(0, lineStart >= 0 ? lineStart : screen.length() - MAX_SCREEN_LENGTH);
+            }
+            lastTm = Math.max(lastTm, logTm);
+        }
+
+        /**
+         * @return last lines of the screen to store with a keyframe
+         */
+        String getScreen() {
+            String lines = TerminalOutputNormalizer.lastLines(screen, SessionAuditDB.REPLAY_SCREEN_LINES);
+            return lines.length() > MAX_SCREEN_LENGTH ? lines.substring(lines.length() - MAX_SCREEN_LENGTH) : lines;
+        }
+    }
+
+    /**
+     * Task that drains the queue in batches until stopped and the queue is empty
+     */
+    private static class WriterTask implements Runnable {
+
+        @Override
+        public void run() {
+            List<TerminalLogEntry> batch = new ArrayList<>(BATCH_SIZE);
+            while (running || !logQueue.isEmpty()) {
+                try {
+                    TerminalLogEntry logEntry = running ? logQueue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS) : logQueue.poll();
+                    if (logEntry == null) {
+                        //queue has drained so catch up on spilled output
+                        recoverSpill();
+                        writeBatch(batch);
+                        indexBacklog();
+                        continue;
+                    }
+                    batch.add(logEntry);
+                    logQueue.drainTo(batch, BATCH_SIZE - 1);
+                    writeBatch(batch);
+
+                } catch (InterruptedException ex) {
+                    //stopping, write what is left in the queue
+                } catch (Exception ex) {
+                    log.error(ex.toString(), ex);
+                    batch.clear();
+                }
+            }
+            //write chunks that have not filled
+            List<TerminalLogChunk> sealedList = new ArrayList<>();
+            sealChunks(sealedList, Long.MAX_VALUE);
+            writeChunks(sealedList);
+        }
+    }
+}
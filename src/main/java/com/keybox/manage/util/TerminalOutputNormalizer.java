@@ -0,0 +1,207 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+/**
+ * Removes terminal escape sequences and applies backspaces to terminal output in a single pass.
+ * The normalizer keeps its state between calls so output can be normalized as it is read, and
+ * the state can be saved and restored when output is read a page at a time.
+ * <p>
+ * CSI sequences, OSC strings (along with DCS, SOS, PM and APC strings) and other escape
+ * sequences are removed. A backspace removes the previous character on the line. Backspaces
+ * with no previous character in the output are kept so they can be applied to output that was
+ * normalized before it
+ */
+public class TerminalOutputNormalizer {
+
+    public static final int STATE_TEXT = 0;
+    public static final int STATE_ESCAPE = 1;
+    public static final int STATE_ESCAPE_INTERMEDIATE = 2;
+    public static final int STATE_CSI = 3;
+    public static final int STATE_STRING = 4;
+    public static final int STATE_STRING_ESCAPE = 5;
+
+    private static final char ESC = 0x1B;
+    private static final char BEL = 0x07;
+    private static final char BACKSPACE = '\b';
+    private static final char C1_CSI = 0x9B;
+    private static final char C1_ST = 0x9C;
+    private static final char C1_OSC = 0x9D;
+
+    private int state = STATE_TEXT;
+
+    public TerminalOutputNormalizer() {
+    }
+
+    /**
+     * @param state state saved from a previous normalizer
+     */
+    public TerminalOutputNormalizer(int state) {
+        this.state = isValidState(state) ? state : STATE_TEXT;
+    }
+
+    /**
+     * @param state state saved from a previous normalizer
+     * @return true if the state is one the normalizer can resume from
+     */
+    public static boolean isValidState(int state) {
+        return state >= STATE_TEXT && state <= STATE_STRING_ESCAPE;
+    }
+
+    /**
+     * normalizes output in a new normalizer
+     *
+     * @param in terminal output
+     * @return normalized output
+     */
+    public static String normalizeAll(CharSequence in) {
+        StringBuilder out = new StringBuilder(in.length());
+        new TerminalOutputNormalizer().normalize(in, 0, in.length(), out);
+        return out.toString();
+    }
+
+    /**
+     * normalizes output and appends it
+     *
+     * @param in  terminal output
+     * @param out normalized output
+     */
+    public void normalize(CharSequence in, StringBuilder out) {
+        normalize(in, 0, in.length(), out);
+    }
+
+    /**
+     * normalizes a range of output and appends it
+     *
+     * @param in    terminal output
+     * @param start index of the first char
+     * @param end   index after the last char
+     * @param out   normalized output
+     */
+    public void normalize(CharSequence in, int start, int end, StringBuilder out) {
+
+        for (int i = start; i < end; i++) {
+            char c = in.charAt(i);
+            switch (state) {
+                case STATE_TEXT:
+                    if (c == ESC) {
+                        state = STATE_ESCAPE;
+                    } else if (c == C1_CSI) {
+                        state = STATE_CSI;
+                    } else if (c == C1_OSC) {
+                        state = STATE_STRING;
+                    } else if (c == BACKSPACE) {
+                        backspace(out);
+                    } else if ((c >= 0x20 && c != 0x7F && (c < 0x80 || c > 0x9F)) || c == '\n' || c == '\r' || c == '\t') {
+                        out.append(c);
+                    }
+                    //other control chars are dropped
+                    break;
+                case STATE_ESCAPE:
+                    if (c == '[') {
+                        state = STATE_CSI;
+                    } else if (c == ']' || c == 'P' || c == 'X' || c == '^' || c == '_') {
+                        state = STATE_STRING;
+                    } else if (c >= 0x20 && c <= 0x2F) {
+                        state = STATE_ESCAPE_INTERMEDIATE;
+                    } else if (c != ESC) {
+                        state = STATE_TEXT;
+                    }
+                    break;
+                case STATE_ESCAPE_INTERMEDIATE:
+                    if (c == ESC) {
+                        state = STATE_ESCAPE;
+                    } else if (c < 0x20 || c > 0x2F) {
+                        state = STATE_TEXT;
+                    }
+                    break;
+                case STATE_CSI:
+                    if (c == ESC) {
+                        state = STATE_ESCAPE;
+                    } else if (c >= 0x40 && c <= 0x7E) {
+                        state = STATE_TEXT;
+                    }
+                    break;
+                case STATE_STRING:
+                    if (c == BEL || c == C1_ST) {
+                        state = STATE_TEXT;
+                    } else if (c == ESC) {
+                        state = STATE_STRING_ESCAPE;
+                    }
+                    break;
+                case STATE_STRING_ESCAPE:
+                    if (c == '\\') {
+                        state = STATE_TEXT;
+                    } else {
+                        //escape ends the string and starts a new sequence
+                        state = STATE_ESCAPE;
+                        i--;
+                    }
+                    break;
+                default:
+                    state = STATE_TEXT;
+            }
+        }
+    }
+
+    /**
+     * removes the previous char on the line or keeps the backspace if there is none
+     *
+     * @param out normalized output
+     */
+    private static void backspace(StringBuilder out) {
+        int length = out.length();
+        if (length == 0 || out.charAt(length - 1) == BACKSPACE) {
+            out.append(BACKSPACE);
+        } else if (out.charAt(length - 1) != '\n' && out.charAt(length - 1) != '\r') {
+            out.setLength(length - 1);
+        }
+    }
+
+    /**
+     * returns the current line of normalized output and the given number of lines before it,
+     * without the line break before the first line or any backspace carried past its start
+     *
+     * @param out   normalized output
+     * @param lines number of lines before the current line
+     * @return last lines of output
+     */
+    public static String lastLines(StringBuilder out, int lines) {
+        int start = out.length();
+        for (int count = 0; start > 0 && count <= lines; ) {
+            start = out.lastIndexOf("\n", start - 1);
+            if (start < 0) {
+                start = 0;
+            } else {
+                count++;
+            }
+        }
+        if (start < out.length() && out.charAt(start) == '\n') {
+            start++;
+        }
+        while (start < out.length() && out.charAt(start) == BACKSPACE) {
+            start++;
+        }
+        return out.substring(start);
+    }
+
+    /**
+     * @return state to restore in a new normalizer
+     */
+    public int getState() {
+        return state;
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import com.keybox.common.util.AppConfig;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded thread pools for terminal I/O. Shell tasks read output from the SSH channels and
+ * web socket tasks send the output to the browser. Each task holds a thread for the life of the
+ * terminal or web socket, so the pools reject new tasks once the max size has been reached.
+ * Connect tasks open the SSH sessions and are queued until a connect thread is free.
+ */
+public class TerminalPoolUtil {
+
+    private static Logger log = LoggerFactory.getLogger(TerminalPoolUtil.class);
+
+    //max number of open terminals
+    public static final int SHELL_POOL_SIZE = StringUtils.isNumeric(AppConfig.getProperty("shellPoolSize")) ? Integer.parseInt(AppConfig.getProperty("shellPoolSize")) : 500;
+    //max number of open web socket connections
+    public static final int WEB_SOCKET_POOL_SIZE = StringUtils.isNumeric(AppConfig.getProperty("webSocketPoolSize")) ? Integer.parseInt(AppConfig.getProperty("webSocketPoolSize")) : 200;
+    //max number of SSH sessions being opened at the same time
+    public static final int CONNECT_POOL_SIZE = StringUtils.isNumeric(AppConfig.getProperty("connectPoolSize")) ? Integer.parseInt(AppConfig.getProperty("connectPoolSize")) : 20;
+    //time in seconds to wait for tasks to finish on shutdown
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
+    private static ThreadPoolExecutor shellPool = createPool(SHELL_POOL_SIZE, "keybox-shell");
+    private static ThreadPoolExecutor webSocketPool = createPool(WEB_SOCKET_POOL_SIZE, "keybox-ws");
+    private static ThreadPoolExecutor connectPool = new ThreadPoolExecutor(Math.max(1, CONNECT_POOL_SIZE), Math.max(1, CONNECT_POOL_SIZE), 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("keybox-connect"));
+
+    static {
+        connectPool.allowCoreThreadTimeOut(true);
+    }
+
+    private TerminalPoolUtil() {
+    }
+
+    /**
+     * creates a pool that starts threads as needed up to the max size and rejects tasks after that
+     *
+     * @param maxSize max number of threads
+     * @param prefix  thread name prefix
+     * @return thread pool
+     */
+    private static ThreadPoolExecutor createPool(int maxSize, String prefix) {
+        return new ThreadPoolExecutor(0, Math.max(1, maxSize), 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new NamedThreadFactory(prefix));
+    }
+
+    /**
+     * runs task that reads output from the SSH channel
+     *
+     * @param task shell task
+     * @throws RejectedExecutionException if max number of terminals are open
+     */
+    public static void executeShellTask(Runnable task) {
+        shellPool.execute(task);
+    }
+
+    /**
+     * runs task that sends output to the web socket
+     *
+     * @param task web socket task
+     * @throws RejectedExecutionException if max number of web sockets are open
+     */
+    public static void executeWebSocketTask(Runnable task) {
+        webSocketPool.execute(task);
+    }
+
+    /**
+     * queues task that opens an SSH session
+     *
+     * @param task connect task
+     * @return future for the result of the task
+     */
+    public static <T> Future<T> submitConnectTask(Callable<T> task) {
+        return connectPool.submit(task);
+    }
+
+    /**
+     * sets the max number of open terminals
+     *
+     * @param maxSize max number of threads
+     */
+    public static void setShellPoolSize(int maxSize) {
+        shellPool.setMaximumPoolSize(Math.max(1, maxSize));
+    }
+
+    /**
+     * sets the max number of open web socket connections
+     *
+     * @param maxSize max number of threads
+     */
+    public static void setWebSocketPoolSize(int maxSize) {
+        webSocketPool.setMaximumPoolSize(Math.max(1, maxSize));
+    }
+
+    public static int getShellPoolSize() {
+        return shellPool.getMaximumPoolSize();
+    }
+
+    public static int getActiveShellTasks() {
+        return shellPool.getActiveCount();
+    }
+
+    public static int getLargestShellPoolSize() {
+        return shellPool.getLargestPoolSize();
+    }
+
+    public static long getCompletedShellTasks() {
+        return shellPool.getCompletedTaskCount();
+    }
+
+    public static int getWebSocketPoolSize() {
+        return webSocketPool.getMaximumPoolSize();
+    }
+
+    public static int getActiveWebSocketTasks() {
+        return webSocketPool.getActiveCount();
+    }
+
+    public static int getLargestWebSocketPoolSize() {
+        return webSocketPool.getLargestPoolSize();
+    }
+
+    public static long getCompletedWebSocketTasks() {
+        return webSocketPool.getCompletedTaskCount();
+    }
+
+    public static int getActiveConnectTasks() {
+        return connectPool.getActiveCount();
+    }
+
+    public static int getQueuedConnectTasks() {
+        return connectPool.getQueue().size();
+    }
+
+    /**
+     * stops accepting tasks and waits for running tasks to finish before interrupting them
+     */
+    public static void shutdown() {
+        connectPool.shutdownNow();
+        shellPool.shutdown();
+        webSocketPool.shutdown();
+        try {
+            if (!shellPool.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                shellPool.shutdownNow();
+            }
+            if (!webSocketPool.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                webSocketPool.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            shellPool.shutdownNow();
+            webSocketPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        log.info("Terminal pools shut down");
+    }
+}
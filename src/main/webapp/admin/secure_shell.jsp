@@ -71,6 +71,7 @@
                     $('#run_cmd_'+id).remove();
                     termMap[id].destroy();
                     delete termMap[id];
+                    delete decoderMap[id];
                 }
                 
             });
@@ -107,6 +108,31 @@
             });
 
 
+            //show status of systems while they are being connected
+            function showConnectStatus() {
+                var statusMsg = {
+                    INITIAL: 'Connecting',
+                    SUCCESS: 'Connected',
+                    AUTHFAIL: 'Password Required',
+                    KEYAUTHFAIL: 'Passphrase Required',
+                    GENERICFAIL: 'Failed',
+                    HOSTFAIL: 'DNS Lookup Failed'
+                };
+                setInterval(function () {
+                    $.getJSON('../admin/getConnectStatus.action?t=' + new Date().getTime() + '&_csrf=<s:property value="#session['_csrf']"/>', function (data) {
+                        var connected = 0;
+                        var rows = '';
+                        $.each(data, function (key, val) {
+                            if (val.statusCd != 'INITIAL') {
+                                connected++;
+                            }
+                            rows += '<tr><td>' + $('<div/>').text(val.displayLabel).html() + '</td><td>' + statusMsg[val.statusCd] + '</td></tr>';
+                        });
+                        $('#connect_status').html('<h5>Connected ' + connected + ' of ' + data.length + ' systems</h5><table class="table-striped">' + rows + '</table>');
+                    });
+                }, 1000);
+            }
+
             <s:if test="currentSystemStatus!=null && currentSystemStatus.statusCd=='GENERICFAIL'">
             $("#error_dialog").modal();
             </s:if>
@@ -123,6 +149,7 @@
             <s:else>
             <s:if test="currentSystemStatus==null ||currentSystemStatus.statusCd!='GENERICFAIL'">
             $("#composite_terms_frm").submit();
+            showConnectStatus();
             </s:if>
             </s:else>
             </s:elseif>
@@ -260,7 +287,15 @@
             }
             ws_uri += "//" + loc.host + loc.pathname + '/../terms.ws?t=' + new Date().getTime();
 
+            //request binary output frames if the browser can decode them
+            var binaryOutput = typeof TextDecoder !== 'undefined';
+            if (binaryOutput) {
+                ws_uri += '&protocol=binary';
+            }
+
             var connection = new WebSocket(ws_uri);
+            connection.binaryType = 'arraybuffer';
+            var decoderMap = {};
 
 
             // Log errors
@@ -270,20 +305,45 @@
 
             // Log messages from the server
             connection.onmessage = function (e) {
-                var json = jQuery.parseJSON(e.data);
-                $.each(json, function (key, val) {
-                    if (val.output != '') {
-                        if(!termMap[val.instanceId]) {
-                            createTermMap(val.instanceId, val.output);
-                        }else {
-                            termMap[val.instanceId].write(val.output);
+                if (typeof e.data === 'string') {
+                    var json = jQuery.parseJSON(e.data);
+                    $.each(json, function (key, val) {
+                        if (val.output == null) {
+                            //host information sent once when a terminal opens
+                            $('#run_cmd_' + val.instanceId).find('.term-header').text(val.displayLabel);
+                            $('#run_cmd_' + val.instanceId).find('.host').attr('data-hostId', val.id);
+                            delete decoderMap[val.instanceId];
+                        } else if (val.output != '') {
+                            writeOutput(val.instanceId, val.output);
+                        }
+                    });
+                } else {
+                    //binary frame of instance id, output length and UTF-8 output records
+                    var view = new DataView(e.data);
+                    var pos = 0;
+                    while (pos + 8 <= view.byteLength) {
+                        var instanceId = view.getInt32(pos);
+                        var length = view.getInt32(pos + 4);
+                        pos += 8;
+                        if (!decoderMap[instanceId]) {
+                            decoderMap[instanceId] = new TextDecoder('utf-8');
+                        }
+                        var output = decoderMap[instanceId].decode(new Uint8Array(e.data, pos, length), {stream: true});
+                        pos += length;
+                        if (output != '') {
+                            writeOutput(instanceId, output);
                         }
                     }
-                        
-                });
-
-                
+                }
             };
+
+            function writeOutput(id, output) {
+                if (!termMap[id]) {
+                    createTermMap(id, output);
+                } else {
+                    termMap[id].write(output);
+                }
+            }
             
             function  createTermMap(id, output){
 
@@ -605,6 +665,7 @@
 
 
     </div>
+    <div id="connect_status"></div>
     </s:if>
     <s:else>
         <jsp:include page="../_res/inc/navigation.jsp"/>
@@ -64,6 +64,14 @@
                 $("#viewKeys").submit();
 
             });
+            $(".next_page_btn").button().click(function () {
+                $('#viewKeys_sortedSet_cursor').attr('value', $(this).attr('data-cursor'));
+                $("#viewKeys").submit();
+            });
+            $(".first_page_btn").button().click(function () {
+                $('#viewKeys_sortedSet_cursor').attr('value', '');
+                $("#viewKeys").submit();
+            });
             <s:if test="sortedSet.orderByField!= null">
             $('#<s:property value="sortedSet.orderByField"/>').attr('class', '<s:property value="sortedSet.orderByDirection"/>');
             </s:if>
@@ -94,6 +102,7 @@
                     <s:hidden name="_csrf" value="%{#session['_csrf']}"/>
                     <s:hidden name="sortedSet.orderByDirection"/>
                     <s:hidden name="sortedSet.orderByField"/>
+                    <s:hidden name="sortedSet.cursor" value="%{''}"/>
 
                     <table>
                         <tr>
@@ -198,6 +207,18 @@
             </div>
         </s:if>
 
+
+        <s:if test="sortedSet.nextCursor != null || (sortedSet.cursor != null && sortedSet.cursor != '')">
+            <div class="spacer spacer-bottom">
+                <s:if test="sortedSet.cursor != null && sortedSet.cursor != ''">
+                    <button class="btn btn-default first_page_btn spacer spacer-left">First Page</button>
+                </s:if>
+                <s:if test="sortedSet.nextCursor != null">
+                    <button class="btn btn-default next_page_btn spacer spacer-right" data-cursor="<s:property value="sortedSet.nextCursor"/>">Next Page</button>
+                </s:if>
+            </div>
+        </s:if>
+
 </div>
 
 </body>
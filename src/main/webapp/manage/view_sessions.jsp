@@ -52,6 +52,14 @@
                 $("#viewSessions").submit();
 
             });
+            $(".next_page_btn").button().click(function () {
+                $('#viewSessions_sortedSet_cursor').attr('value', $(this).attr('data-cursor'));
+                $("#viewSessions").submit();
+            });
+            $(".first_page_btn").button().click(function () {
+                $('#viewSessions_sortedSet_cursor').attr('value', '');
+                $("#viewSessions").submit();
+            });
             <s:if test="sortedSet.orderByField!= null">
             $('#<s:property value="sortedSet.orderByField"/>').attr('class', '<s:property value="sortedSet.orderByDirection"/>');
             </s:if>
@@ -82,6 +90,7 @@
                                 <s:hidden name="_csrf" value="%{#session['_csrf']}"/>
                                 <s:hidden name="sortedSet.orderByDirection"/>
                                 <s:hidden name="sortedSet.orderByField"/>
+                                <s:hidden name="sortedSet.cursor" value="%{''}"/>
                                 <table>
                                 <tr>
                                     <s:if test="userList!= null && !userList.isEmpty()">
@@ -102,6 +111,9 @@
                                             headerValue="-Select System-"/>
                                         </td>
                                     </s:if>
+                                    <td class="align_left">
+                                        <s:textfield name="sortedSet.filterMap['%{@com.keybox.manage.db.SessionAuditDB@FILTER_BY_TEXT}']" placeholder="Search Output" type="text"/>
+                                    </td>
                                     <td style="padding:5px 5px 0px 5px;">
                                         <div id="view_btn" class="btn btn-default">Filter</div>
                                     </td>
@@ -111,7 +123,42 @@
                         </td>
                     </tr>
                </table>
-        <s:if test="sortedSet.itemList!= null && !sortedSet.itemList.isEmpty()">
+        <s:if test="hitList!= null">
+            <s:if test="!hitList.isEmpty()">
+    <div class="scrollWrapper">
+            <table class="table-striped scrollableTable" >
+                <thead>
+                <tr>
+                    <th>Username</th>
+                    <th>System</th>
+                    <th>Output Time</th>
+                    <th>Output</th>
+                    <th>&nbsp;</th>
+                </tr>
+                </thead>
+                <tbody>
+                <s:iterator var="hit" value="hitList" status="stat">
+                    <tr>
+                        <td><s:property value="username"/></td>
+                        <td><s:property value="hostSystem.displayLabel"/></td>
+                        <td><s:date name="hitTm"/></td>
+                        <td><pre class="hit_snippet"><s:property value="snippet"/></pre></td>
+                        <td>
+                            <div id="terminals_btn_<s:property value='sessionId'/>" class="btn btn-default terminals_btn">
+                                Audit
+                            </div>
+                        </td>
+                    </tr>
+                </s:iterator>
+                </tbody>
+            </table>
+        </div>
+            </s:if>
+            <s:else>
+                <p class="error">No terminal output found</p>
+            </s:else>
+        </s:if>
+        <s:elseif test="sortedSet.itemList!= null && !sortedSet.itemList.isEmpty()">
 
     <div class="scrollWrapper">
             <table class="table-striped scrollableTable" >
@@ -157,11 +204,22 @@
                 </tbody>
             </table>
         </div>
-        </s:if>
+        </s:elseif>
         <s:else>
             <p class="error">No session audits available</p>
         </s:else>
 
+        <s:if test="sortedSet.nextCursor != null || (sortedSet.cursor != null && sortedSet.cursor != '')">
+            <div class="spacer spacer-bottom">
+                <s:if test="sortedSet.cursor != null && sortedSet.cursor != ''">
+                    <button class="btn btn-default first_page_btn spacer spacer-left">First Page</button>
+                </s:if>
+                <s:if test="sortedSet.nextCursor != null">
+                    <button class="btn btn-default next_page_btn spacer spacer-right" data-cursor="<s:property value="sortedSet.nextCursor"/>">Next Page</button>
+                </s:if>
+            </div>
+        </s:if>
+
 
 </div>
 
@@ -51,6 +51,14 @@
                 $("#viewSystems").submit();
 
             });
+            $(".next_page_btn").button().click(function () {
+                $('#viewSystems_sortedSet_cursor').attr('value', $(this).attr('data-cursor'));
+                $("#viewSystems").submit();
+            });
+            $(".first_page_btn").button().click(function () {
+                $('#viewSystems_sortedSet_cursor').attr('value', '');
+                $("#viewSystems").submit();
+            });
             <s:if test="sortedSet.orderByField!= null">
             $('#<s:property value="sortedSet.orderByField"/>').attr('class', '<s:property value="sortedSet.orderByDirection"/>');
             </s:if>
@@ -96,6 +104,7 @@
             <s:hidden name="_csrf" value="%{#session['_csrf']}"/>
             <s:hidden name="sortedSet.orderByDirection"/>
             <s:hidden name="sortedSet.orderByField"/>
+            <s:hidden name="sortedSet.cursor" value="%{''}"/>
         </s:form>
 
         <h3>Manage Systems</h3>
@@ -171,7 +180,177 @@
 
         </s:if>
 
+        <s:if test="sortedSet.nextCursor != null || (sortedSet.cursor != null && sortedSet.cursor != '')">
+            <div class="spacer spacer-bottom">
+                <s:if test="sortedSet.cursor != null && sortedSet.cursor != ''">
+                    <button class="btn btn-default first_page_btn spacer spacer-left">First Page</button>
+                </s:if>
+                <s:if test="sortedSet.nextCursor != null">
+                    <button class="btn btn-default next_page_btn spacer spacer-right" data-cursor="<s:property value="sortedSet.nextCursor"/>">Next Page</button>
+                </s:if>
+            </div>
+        </s:if>
+
         <button class="btn btn-default add_btn spacer spacer-bottom" data-toggle="modal" data-target="#add_dialog">Add System</button>
+        <button class="btn btn-default spacer spacer-bottom" data-toggle="modal" data-target="#terminal_pools_dialog">Terminal Pools</button>
+
+        <div id="terminal_pools_dialog" class="modal fade">
+            <div class="modal-dialog">
+                <div class="modal-content">
+                    <div class="modal-header">
+                        <button type="button" class="close" data-dismiss="modal" aria-hidden="true">x</button>
+                        <h4 class="modal-title">Terminal Pools</h4>
+                    </div>
+                    <div class="modal-body">
+                        <div class="row">
+                            <table class="table-striped">
+                                <tr>
+                                    <th>&nbsp;</th>
+                                    <th>Active</th>
+                                    <th>Largest</th>
+                                    <th>Completed</th>
+                                </tr>
+                                <tr>
+                                    <td>Terminals</td>
+                                    <td><s:property value="@com.keybox.manage.util.TerminalPoolUtil@getActiveShellTasks()"/></td>
+                                    <td><s:property value="@com.keybox.manage.util.TerminalPoolUtil@getLargestShellPoolSize()"/></td>
+                                    <td><s:property value="@com.keybox.manage.util.TerminalPoolUtil@getCompletedShellTasks()"/></td>
+                                </tr>
+                                <tr>
+                                    <td>Web Sockets</td>
+                                    <td><s:property value="@com.keybox.manage.util.TerminalPoolUtil@getActiveWebSocketTasks()"/></td>
+                                    <td><s:property value="@com.keybox.manage.util.TerminalPoolUtil@getLargestWebSocketPoolSize()"/></td>
+                                    <td><s:property value="@com.keybox.manage.util.TerminalPoolUtil@getCompletedWebSocketTasks()"/></td>
+                                </tr>
+                                <s:if test="@com.keybox.manage.util.SessionOutputUtil@enableInternalAudit">
+                                    <tr>
+                                        <td>Audit Log</td>
+                                        <td colspan="3">
+                                            <s:property value="@com.keybox.manage.util.TerminalLogWriter@getQueueSize()"/> queued,
+                                            <s:property value="@com.keybox.manage.util.TerminalLogWriter@getWrittenCount()"/> written in <s:property value="@com.keybox.manage.util.TerminalLogWriter@getChunkCount()"/> chunks,
+                                            <s:property value="@com.keybox.manage.util.TerminalLogWriter@getSpilledCount()"/> spilled,
+                                            <s:property value="@com.keybox.manage.util.TerminalLogWriter@getDroppedCount()"/> dropped,
+                                            <s:property value="@com.keybox.manage.util.TerminalLogWriter@getFailedCount()"/> failed
+                                        </td>
+                                    </tr>
+                                </s:if>
+                                <s:if test="@com.keybox.manage.util.SystemAuditLogger@isEnabled()">
+                                    <tr>
+                                        <td>System Audit</td>
+                                        <td colspan="3">
+                                            <s:property value="@com.keybox.manage.util.SystemAuditLogger@getQueueSize()"/> queued,
+                                            <s:property value="@com.keybox.manage.util.SystemAuditLogger@getLoggedCount()"/> logged,
+                                            <s:property value="@com.keybox.manage.util.SystemAuditLogger@getDroppedCount()"/> dropped,
+                                            <s:property value="@com.keybox.manage.util.SystemAuditLogger@getFailedCount()"/> failed
+                                        </td>
+                                    </tr>
+                                </s:if>
+                                <tr>
+                                    <td>Audit Retention</td>
+                                    <td colspan="3">
+                                        <s:if test="@com.keybox.manage.util.AuditRetentionUtil@getCurrentReport() != null">
+                                            <s:set var="retentionReport" value="@com.keybox.manage.util.AuditRetentionUtil@getCurrentReport()"/>
+                                            running,
+                                        </s:if>
+                                        <s:else>
+                                            <s:set var="retentionReport" value="@com.keybox.manage.util.AuditRetentionUtil@getLastReport()"/>
+                                        </s:else>
+                                        <s:if test="#retentionReport != null">
+                                            <s:property value="#retentionReport.sessions"/> sessions,
+                                            <s:property value="#retentionReport.outputRows"/> output rows,
+                                            <s:property value="#retentionReport.chunks"/> chunks deleted
+                                            in <s:property value="#retentionReport.batches"/> batches
+                                            (<s:property value="#retentionReport.duration"/>ms, before <s:date name="#retentionReport.cutoffTm"/>)
+                                        </s:if>
+                                        <s:else>
+                                            not run
+                                        </s:else>
+                                    </td>
+                                </tr>
+                                <tr>
+                                    <td>Application Key</td>
+                                    <td colspan="3">
+                                        <s:property value="@com.keybox.manage.db.PrivateKeyDB@getLoadCount()"/> loads,
+                                        <s:property value="@com.keybox.manage.db.PrivateKeyDB@getDecryptCount()"/> decrypts,
+                                        <s:property value="@com.keybox.manage.util.SSHUtil@getIdentityLoadCount()"/> identities parsed
+                                    </td>
+                                </tr>
+                                <tr>
+                                    <td>Auth Cache</td>
+                                    <td colspan="3">
+                                        <s:property value="@com.keybox.manage.db.AuthDB@getAuthCacheSize()"/> cached,
+                                        <s:property value="@com.keybox.manage.db.AuthDB@getAuthCacheHitCount()"/> hits,
+                                        <s:property value="@com.keybox.manage.db.AuthDB@getAuthCacheMissCount()"/> misses
+                                    </td>
+                                </tr>
+                                <tr>
+                                    <td>Key Refresh</td>
+                                    <td colspan="3">
+                                        <s:property value="@com.keybox.manage.util.RefreshAuthKeyUtil@getPendingRefreshCount()"/> pending
+                                        <s:if test="@com.keybox.manage.util.RefreshAuthKeyUtil@getCurrentRefreshScope() != null">
+                                            (running <s:property value="@com.keybox.manage.util.RefreshAuthKeyUtil@getCurrentRefreshScope()"/>, <s:property value="@com.keybox.manage.util.KeyDistributionUtil@getActiveTasks()"/> active, <s:property value="@com.keybox.manage.util.KeyDistributionUtil@getQueuedTasks()"/> queued)
+                                        </s:if>
+                                    </td>
+                                </tr>
+                            </table>
+                            <s:if test="@com.keybox.manage.util.KeyDistributionUtil@getLastReport() != null">
+                                <s:set var="keyReport" value="@com.keybox.manage.util.KeyDistributionUtil@getLastReport()"/>
+                                <h5>Last Key Distribution</h5>
+                                <table class="table-striped">
+                                    <tr>
+                                        <th>Scope</th>
+                                        <th>Completed</th>
+                                        <th>Systems</th>
+                                        <th>Success</th>
+                                        <th>Unchanged</th>
+                                        <th>Auth Fail</th>
+                                        <th>Host Fail</th>
+                                        <th>Failed</th>
+                                        <th>Retries</th>
+                                    </tr>
+                                    <tr>
+                                        <td><s:property value="#keyReport.scope"/></td>
+                                        <td><s:date name="#keyReport.endTm" format="MM/dd/yyyy HH:mm:ss"/> (<s:property value="#keyReport.duration"/>ms)</td>
+                                        <td><s:property value="#keyReport.total"/></td>
+                                        <td><s:property value="#keyReport.success"/></td>
+                                        <td><s:property value="#keyReport.unchanged"/></td>
+                                        <td><s:property value="#keyReport.authFail"/></td>
+                                        <td><s:property value="#keyReport.hostFail"/></td>
+                                        <td><s:property value="#keyReport.genericFail"/></td>
+                                        <td><s:property value="#keyReport.retries"/></td>
+                                    </tr>
+                                </table>
+                                <s:if test="#keyReport.failedSystemList.size() > 0">
+                                    <table class="table-striped">
+                                        <tr>
+                                            <th>Failed System</th>
+                                            <th>Status</th>
+                                        </tr>
+                                        <s:iterator value="#keyReport.failedSystemList">
+                                            <tr>
+                                                <td><s:property value="displayLabel"/></td>
+                                                <td><s:property value="statusCd"/></td>
+                                            </tr>
+                                        </s:iterator>
+                                    </table>
+                                </s:if>
+                            </s:if>
+                            <s:form action="updateTerminalPools">
+                                <s:hidden name="_csrf" value="%{#session['_csrf']}"/>
+                                <s:textfield name="shellPoolSize" value="%{@com.keybox.manage.util.TerminalPoolUtil@getShellPoolSize()}" label="Max Terminals" size="5"/>
+                                <s:textfield name="webSocketPoolSize" value="%{@com.keybox.manage.util.TerminalPoolUtil@getWebSocketPoolSize()}" label="Max Web Sockets" size="5"/>
+                                <s:hidden name="sortedSet.orderByDirection"/>
+                                <s:hidden name="sortedSet.orderByField"/>
+                            </s:form>
+                        </div>
+                    </div>
+                    <div class="modal-footer">
+                        <button type="button" class="btn btn-default cancel_btn" data-dismiss="modal">Cancel</button>
+                        <button type="button" class="btn btn-default submit_btn">Submit</button>
+                    </div>
+                </div>
+            </div>
+        </div>
         <div id="add_dialog" class="modal fade">
             <div class="modal-dialog">
                 <div class="modal-content">
@@ -71,27 +71,164 @@ $(document).ready(function() {
         $(".output").each(function (index, value){
 
                var id = $(this).attr("id").replace("output_", "");
+               loadTermPage(id, null, "");
 
-               $.getJSON('getJSONTermOutputForSession.action?sessionId=<s:property value="sessionAudit.id"/>&instanceId='+id+'&t='+new Date().getTime() +'&_csrf=<s:property value="#session['_csrf']"/>', function(data) {
-                   $.each(data, function(key, val) {
-                       if (val.output != '' && val.instanceId!=null) {
+           });
+  }
 
-                               $("#output_"+val.instanceId+"> .terminal").empty();
-                               var output=val.output;
-                               output = output.replace(/\r\n\r\n/g, '\r\n \r\n');
-                               var outputList = output.split('\r\n');
-                               for(var i=0; i<outputList.length;i++){
-                                   $("#output_"+val.instanceId+"> .terminal").append("<pre>"+outputList[i]+"</pre>");;
-                               }
+  //loads output a page at a time so long sessions render progressively
+  function loadTermPage(instanceId, cursor, line){
 
+        var url = 'getJSONTermOutputPage.action?sessionId=<s:property value="sessionAudit.id"/>&instanceId=' + instanceId + '&t=' + new Date().getTime() + '&_csrf=<s:property value="#session['_csrf']"/>';
+        if (cursor != null) {
+            url = url + '&cursor=' + encodeURIComponent(cursor);
+        }
 
-                       }
-                   });
-                });
+        $.getJSON(url, function(data) {
+            var terminal = $("#output_" + instanceId + "> .terminal");
+            line = appendOutput(terminal, data.output, line, data.done);
+            filterTerms();
 
-           });
+            if (!data.done) {
+                loadTermPage(instanceId, data.cursor, line);
+            }
+        });
+  }
+
+  //appends normalized output to a terminal and returns the partial last line
+  function appendOutput(terminal, output, line, done){
+
+        //apply backspaces carried over from the previous output
+        var i = 0;
+        while (i < output.length && output.charAt(i) == '\b') {
+            line = line.substring(0, line.length - 1);
+            i++;
+        }
+        var outputList = (line + output.substring(i)).split('\r\n');
+        //the last line may continue with the next output
+        line = outputList.pop();
+
+        terminal.children(".partial").remove();
+        for (var j = 0; j < outputList.length; j++) {
+            terminal.append($("<pre/>").text(outputList[j] == '' ? ' ' : outputList[j]));
+        }
+        if (line != '') {
+            terminal.append($("<pre/>").addClass(done ? "" : "partial").text(line));
+        }
+        return line;
   }
 
+  //replay state for each terminal
+  var replays = {};
+  //max delay in milliseconds between frames so idle time is skipped
+  var MAX_FRAME_DELAY = 2000;
+
+  function getReplay(instanceId){
+        if (replays[instanceId] == null) {
+            replays[instanceId] = {seq: 0, timer: null, playing: false, frames: [], index: 0, tm: 0, startTm: 0, endTm: 0, nextTm: 0, done: true, line: ''};
+        }
+        return replays[instanceId];
+  }
+
+  function formatReplayTime(ms){
+        var seconds = Math.floor(Math.max(0, ms) / 1000);
+        var minutes = Math.floor(seconds / 60);
+        seconds = seconds % 60;
+        return minutes + ':' + (seconds < 10 ? '0' : '') + seconds;
+  }
+
+  function updateReplayControls(instanceId){
+        var replay = getReplay(instanceId);
+        var controls = $("#replay_" + instanceId);
+        controls.find(".replay_slider").attr("min", 0).attr("max", replay.endTm - replay.startTm).val(replay.tm - replay.startTm);
+        controls.find(".replay_time").text(formatReplayTime(replay.tm - replay.startTm) + ' / ' + formatReplayTime(replay.endTm - replay.startTm));
+        controls.find(".replay_play_btn").text(replay.playing ? 'Pause' : 'Play');
+  }
+
+  //loads a replay window, replacing the terminal with the screen at the window time on seek
+  function loadReplayWindow(instanceId, time, seek){
+
+        var replay = getReplay(instanceId);
+        var seq = ++replay.seq;
+        clearTimeout(replay.timer);
+
+        var url = 'getJSONTermReplay.action?sessionId=<s:property value="sessionAudit.id"/>&instanceId=' + instanceId + '&time=' + time + '&t=' + new Date().getTime() + '&_csrf=<s:property value="#session['_csrf']"/>';
+        $.getJSON(url, function(data) {
+            //ignore windows loaded before the last seek
+            if (seq != replay.seq) {
+                return;
+            }
+            var terminal = $("#output_" + instanceId + "> .terminal");
+            if (seek) {
+                terminal.empty();
+                replay.line = appendOutput(terminal, data.screen, '', false);
+                terminal.scrollTop(terminal.prop("scrollHeight"));
+                replay.tm = data.tm;
+            }
+            replay.startTm = data.startTm;
+            replay.endTm = data.endTm;
+            replay.frames = data.frameList;
+            replay.index = 0;
+            replay.nextTm = data.nextTm;
+            replay.done = data.done;
+            updateReplayControls(instanceId);
+            if (replay.playing) {
+                playFrame(instanceId);
+            }
+        });
+  }
+
+  //plays the next frame after the time since the last frame divided by the speed
+  function playFrame(instanceId){
+
+        var replay = getReplay(instanceId);
+        if (replay.index < replay.frames.length) {
+            var frame = replay.frames[replay.index];
+            var speed = parseInt($("#replay_" + instanceId + " .replay_speed").val());
+            var delay = Math.min(Math.max(0, frame.tm - replay.tm) / speed, MAX_FRAME_DELAY);
+            replay.timer = setTimeout(function() {
+                var terminal = $("#output_" + instanceId + "> .terminal");
+                replay.line = appendOutput(terminal, frame.output, replay.line, false);
+                terminal.scrollTop(terminal.prop("scrollHeight"));
+                replay.tm = frame.tm;
+                replay.index++;
+                updateReplayControls(instanceId);
+                playFrame(instanceId);
+            }, delay);
+        } else if (!replay.done) {
+            loadReplayWindow(instanceId, replay.nextTm, false);
+        } else {
+            replay.playing = false;
+            replay.tm = replay.endTm;
+            updateReplayControls(instanceId);
+        }
+  }
+
+  $(".replay_play_btn").button().click(function() {
+        var instanceId = $(this).closest(".replay").attr("id").replace("replay_", "");
+        var replay = getReplay(instanceId);
+        if (replay.playing) {
+            replay.playing = false;
+            clearTimeout(replay.timer);
+            updateReplayControls(instanceId);
+        } else {
+            replay.playing = true;
+            //start from the beginning when the replay has not been loaded or has finished
+            if (replay.startTm == 0 || (replay.done && replay.index >= replay.frames.length)) {
+                loadReplayWindow(instanceId, 0, true);
+            } else {
+                updateReplayControls(instanceId);
+                playFrame(instanceId);
+            }
+        }
+  });
+
+  $(".replay_slider").change(function() {
+        var instanceId = $(this).closest(".replay").attr("id").replace("replay_", "");
+        var replay = getReplay(instanceId);
+        loadReplayWindow(instanceId, replay.startTm + parseInt($(this).val()), true);
+  });
+
   loadTerms();
 
 });
@@ -121,6 +258,16 @@ $(document).ready(function() {
         float: right;
     }
 
+    .replay {
+        padding: 5px 0px;
+    }
+
+    .replay_slider {
+        display: inline-block;
+        width: 300px;
+        vertical-align: middle;
+    }
+
     .term-container {
         width: 100%;
         padding: 25px 0px;
@@ -187,6 +334,19 @@ $(document).ready(function() {
 
                         <h6 class="term-header"><s:property value="displayLabel"/></h6>
 
+                        <div id="replay_<s:property value="instanceId"/>" class="replay">
+                            <div class="btn btn-default replay_play_btn spacer spacer-left">Play</div>
+                            <select class="replay_speed spacer spacer-middle">
+                                <option value="1">1x</option>
+                                <option value="2">2x</option>
+                                <option value="4">4x</option>
+                                <option value="8">8x</option>
+                                <option value="16">16x</option>
+                            </select>
+                            <input type="range" class="replay_slider spacer spacer-middle" min="0" max="0" value="0"/>
+                            <span class="replay_time spacer spacer-right"></span>
+                        </div>
+
                         <div id="term" class="term">
                             <div id="output_<s:property value="instanceId"/>" class="output">
                             <div class="terminal" >
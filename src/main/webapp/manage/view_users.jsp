@@ -48,6 +48,14 @@
                 $("#viewUsers").submit();
 
             });
+            $(".next_page_btn").button().click(function () {
+                $('#viewUsers_sortedSet_cursor').attr('value', $(this).attr('data-cursor'));
+                $("#viewUsers").submit();
+            });
+            $(".first_page_btn").button().click(function () {
+                $('#viewUsers_sortedSet_cursor').attr('value', '');
+                $("#viewUsers").submit();
+            });
             <s:if test="sortedSet.orderByField!= null">
             $('#<s:property value="sortedSet.orderByField"/>').attr('class', '<s:property value="sortedSet.orderByDirection"/>');
             </s:if>
@@ -97,6 +105,7 @@
             <s:hidden name="_csrf" value="%{#session['_csrf']}"/>
             <s:hidden name="sortedSet.orderByDirection" />
             <s:hidden name="sortedSet.orderByField"/>
+            <s:hidden name="sortedSet.cursor" value="%{''}"/>
         </s:form>
 
         <h3>Manage Users</h3>
@@ -179,6 +188,17 @@
                 </div>
         </s:if>
 
+        <s:if test="sortedSet.nextCursor != null || (sortedSet.cursor != null && sortedSet.cursor != '')">
+            <div class="spacer spacer-bottom">
+                <s:if test="sortedSet.cursor != null && sortedSet.cursor != ''">
+                    <button class="btn btn-default first_page_btn spacer spacer-left">First Page</button>
+                </s:if>
+                <s:if test="sortedSet.nextCursor != null">
+                    <button class="btn btn-default next_page_btn spacer spacer-right" data-cursor="<s:property value="sortedSet.nextCursor"/>">Next Page</button>
+                </s:if>
+            </div>
+        </s:if>
+
 
 
 
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.db;
+
+import com.keybox.common.db.DBInitServlet;
+import com.keybox.common.db.SchemaMigrationRunner;
+import com.keybox.manage.model.HostSystem;
+import com.keybox.manage.model.TerminalLogPage;
+import com.keybox.manage.util.DBUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the audit and status queries on a seeded terminal log with and without the indexes
+ * added by schema version 1. The database is seeded once under target/benchmark and reused
+ * by later runs with the same number of rows.
+ * Run with mvn test -Pbenchmark -Dbenchmark=AuditQueryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class AuditQueryBenchmark {
+
+    private static final int USER_COUNT = 200;
+    private static final int SYSTEM_COUNT = 1000;
+    //systems at the end of the list have not had keys placed for each user
+    private static final int PENDING_SYSTEMS = 10;
+    private static final int INSTANCE_COUNT = 4;
+    private static final int ROWS_PER_SESSION = 1000;
+    //sessions logging at the same time, so the rows of a session are spread through the table
+    private static final int CONCURRENT_SESSIONS = 50;
+    private static final int COMMIT_ROWS = 10000;
+
+    @Param({"10000000"})
+    int rows;
+
+    @Param({"false", "true"})
+    boolean indexed;
+
+    Connection con;
+    int sessionCount;
+    //cycled through so H2 does not return the result of the last identical query
+    int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        sessionCount = rows / ROWS_PER_SESSION;
+        Class.forName("org.h2.Driver");
+        File dir = new File("target/benchmark");
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + dir.getPath());
+        }
+        con = DriverManager.getConnection("jdbc:h2:file:" + dir.getAbsolutePath() + "/audit-" + rows + ";CACHE_SIZE=262144");
+
+        Statement stmt = con.createStatement();
+        if (count(stmt, "select count(*) from information_schema.tables where table_name='TERMINAL_LOG'") == 0
+                || count(stmt, "select count(*) from terminal_log") != rows) {
+            seed();
+        }
+        if (indexed) {
+            stmt.execute("create index if not exists terminal_log_session_idx on terminal_log (session_id, instance_id, log_tm)");
+            stmt.execute("create index if not exists status_user_idx on status (user_id, status_cd, id)");
+        } else {
+            stmt.execute("drop index if exists terminal_log_session_idx");
+            stmt.execute("drop index if exists status_user_idx");
+        }
+        stmt.execute("analyze");
+        DBUtils.closeStmt(stmt);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        con.close();
+    }
+
+    /**
+     * creates the schema and seeds the tables, indexes from schema version 1 are created by the trial
+     */
+    private void seed() throws SQLException {
+        Statement stmt = con.createStatement();
+        stmt.execute("drop all objects");
+        DBInitServlet.createSchema(con);
+        SchemaMigrationRunner.migrate(con, false);
+        stmt.execute("drop index if exists terminal_log_session_idx");
+        stmt.execute("drop index if exists status_user_idx");
+        DBUtils.closeStmt(stmt);
+
+        con.setAutoCommit(false);
+        PreparedStatement pStmt = con.prepareStatement("insert into users (id, username) values (?,?)");
+        for (int u = 1; u <= USER_COUNT; u++) {
+            pStmt.setInt(1, u);
+            pStmt.setString(2, "user" + u);
+            pStmt.addBatch();
+        }
+        pStmt.executeBatch();
+        DBUtils.closeStmt(pStmt);
+
+        pStmt = con.prepareStatement("insert into system (id, display_nm, user, host, port, authorized_keys) values (?,?,'root',?,22,'~/.ssh/authorized_keys')");
+        for (int s = 1; s <= SYSTEM_COUNT; s++) {
+            pStmt.setInt(1, s);
+            pStmt.setString(2, "system" + s);
+            pStmt.setString(3, "host" + s);
+            pStmt.addBatch();
+        }
+        pStmt.executeBatch();
+        DBUtils.closeStmt(pStmt);
+
+        pStmt = con.prepareStatement("insert into status (id, user_id, status_cd) values (?,?,?)");
+        for (int u = 1; u <= USER_COUNT; u++) {
+            for (int s = 1; s <= SYSTEM_COUNT; s++) {
+                pStmt.setInt(1, s);
+                pStmt.setInt(2, u);
+                pStmt.setString(3, s > SYSTEM_COUNT - PENDING_SYSTEMS ? HostSystem.INITIAL_STATUS : HostSystem.SUCCESS_STATUS);
+                pStmt.addBatch();
+            }
+            pStmt.executeBatch();
+        }
+        DBUtils.closeStmt(pStmt);
+
+        long startTm = System.currentTimeMillis() - rows * 10L;
+        pStmt = con.prepareStatement("insert into session_log (id, user_id, session_tm) values (?,?,?)");
+        for (int s = 1; s <= sessionCount; s++) {
+            pStmt.setLong(1, s);
+            pStmt.setInt(2, s % USER_COUNT + 1);
+            pStmt.setTimestamp(3, new Timestamp(startTm + (s - 1) * (long) ROWS_PER_SESSION * 10L));
+            pStmt.addBatch();
+        }
+        pStmt.executeBatch();
+        DBUtils.closeStmt(pStmt);
+        con.commit();
+
+        pStmt = con.prepareStatement("insert into terminal_log (session_id, instance_id, system_id, output, log_tm) values (?,?,?,?,?)");
+        int blockRows = CONCURRENT_SESSIONS * ROWS_PER_SESSION;
+        for (int r = 0; r < rows; r++) {
+            long session = (long) (r / blockRows) * CONCURRENT_SESSIONS + r % CONCURRENT_SESSIONS + 1;
+            int instance = (r / CONCURRENT_SESSIONS) % INSTANCE_COUNT + 1;
+            pStmt.setLong(1, session);
+            pStmt.setInt(2, instance);
+            pStmt.setInt(3, (int) ((session * INSTANCE_COUNT + instance) % SYSTEM_COUNT) + 1);
+            pStmt.setString(4, "drwxr-xr-x 2 root root 4096 Jan  1 00:00 \u001B[01;34mdir" + r + "\u001B[0m\r\n");
+            pStmt.setTimestamp(5, new Timestamp(startTm + r * 10L));
+            pStmt.addBatch();
+            if ((r + 1) % COMMIT_ROWS == 0) {
+                pStmt.executeBatch();
+                con.commit();
+            }
+        }
+        pStmt.executeBatch();
+        DBUtils.closeStmt(pStmt);
+        con.commit();
+        con.setAutoCommit(true);
+    }
+
+    private Long nextSessionId() {
+        next++;
+        return (long) (next % sessionCount + 1);
+    }
+
+    private Long nextUserId() {
+        next++;
+        return (long) (next % USER_COUNT + 1);
+    }
+
+    private static long count(Statement stmt, String sql) throws SQLException {
+        ResultSet rs = stmt.executeQuery(sql);
+        rs.next();
+        long count = rs.getLong(1);
+        DBUtils.closeRs(rs);
+        return count;
+    }
+
+    @Benchmark
+    public TerminalLogPage terminalLogPage() {
+        return SessionAuditDB.getTerminalLogPage(con, nextSessionId(), 1, null);
+    }
+
+    @Benchmark
+    public List<HostSystem> hostSystemsForSession() {
+        return SessionAuditDB.getHostSystemsForSession(con, nextSessionId());
+    }
+
+    @Benchmark
+    public HostSystem nextPendingSystem() {
+        return SystemStatusDB.getNextPendingSystem(con, nextUserId());
+    }
+
+    /**
+     * pending system query before schema version 1
+     */
+    @Benchmark
+    public Long likePendingSystem() throws SQLException {
+        PreparedStatement stmt = con.prepareStatement("select * from status where (status_cd like ? or status_cd like ? or status_cd like ?) and user_id=? order by id asc");
+        stmt.setString(1, HostSystem.INITIAL_STATUS);
+        stmt.setString(2, HostSystem.AUTH_FAIL_STATUS);
+        stmt.setString(3, HostSystem.PUBLIC_KEY_FAIL_STATUS);
+        stmt.setLong(4, nextUserId());
+        ResultSet rs = stmt.executeQuery();
+        Long id = rs.next() ? rs.getLong("id") : null;
+        DBUtils.closeRs(rs);
+        DBUtils.closeStmt(stmt);
+        return id;
+    }
+}
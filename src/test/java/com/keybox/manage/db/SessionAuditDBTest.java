@@ -0,0 +1,261 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.db;
+
+import com.keybox.common.db.DBInitServlet;
+import com.keybox.common.db.SchemaMigrationRunner;
+import com.keybox.manage.model.AuditRetentionReport;
+import com.keybox.manage.model.HostSystem;
+import com.keybox.manage.model.SessionAudit;
+import com.keybox.manage.model.SortedSet;
+import com.keybox.manage.model.TerminalLogChunk;
+import com.keybox.manage.model.TerminalLogPage;
+import com.keybox.manage.model.TerminalReplay;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the joined status and session audit queries against an in-memory database
+ * and that the number of statements does not grow with the number of rows
+ */
+public class SessionAuditDBTest {
+
+    private static final int USER_COUNT = 3;
+    private static final int SYSTEM_COUNT = 5;
+
+    private Connection con;
+    private int statementCount;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:" + UUID.randomUUID());
+
+        //same schema as a new database after all migrations
+        DBInitServlet.createSchema(con);
+        SchemaMigrationRunner.migrate(con, false);
+
+        Statement statement = con.createStatement();
+
+        for (int u = 1; u <= USER_COUNT; u++) {
+            statement.executeUpdate("insert into users (first_nm, last_nm, email, username) values ('first" + u + "', 'last" + u + "', 'user" + u + "@keybox.com', 'user" + u + "')");
+        }
+        for (int s = 1; s <= SYSTEM_COUNT; s++) {
+            statement.executeUpdate("insert into system (display_nm, user, host, port, authorized_keys) values ('system" + s + "', 'root', 'host" + s + "', 22, '~/.ssh/authorized_keys')");
+            statement.executeUpdate("insert into status (id, user_id, status_cd) values (" + s + ", 1, '" + (s % 2 == 0 ? HostSystem.SUCCESS_STATUS : HostSystem.INITIAL_STATUS) + "')");
+        }
+        //session ids are offset from user ids so a mapper reading the wrong id column fails
+        statement.executeUpdate("insert into session_log (id, user_id) values (100, 2)");
+        statement.executeUpdate("insert into session_log (id, user_id) values (101, 3)");
+        statement.executeUpdate("insert into session_log (id, user_id) values (102, 2)");
+        for (int s = 1; s <= SYSTEM_COUNT; s++) {
+            statement.executeUpdate("insert into terminal_log (session_id, instance_id, system_id, output) values (100, " + s + ", " + s + ", 'ls')");
+        }
+        statement.executeUpdate("insert into terminal_log_chunk (session_id, instance_id, system_id, start_tm, end_tm, output_length, output) values (100, 6, 1, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 0, X'')");
+        statement.close();
+
+        statementCount = 0;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        //in-memory database is dropped when its last connection closes
+        con.close();
+    }
+
+    /**
+     * wraps the connection to count the statements prepared through it
+     */
+    private Connection countingConnection() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("prepareStatement") || method.getName().equals("createStatement")) {
+                    statementCount++;
+                }
+                try {
+                    return method.invoke(con, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testGetSessionsTerminals() {
+        SessionAudit sessionAudit = SessionAuditDB.getSessionsTerminals(countingConnection(), 100L);
+
+        assertEquals(Long.valueOf(100), sessionAudit.getId());
+        assertNotNull(sessionAudit.getSessionTm());
+        assertEquals(Long.valueOf(2), sessionAudit.getUser().getId());
+        assertEquals("user2", sessionAudit.getUser().getUsername());
+
+        List<HostSystem> hostSystemList = sessionAudit.getHostSystemList();
+        assertEquals(SYSTEM_COUNT + 1, hostSystemList.size());
+        for (int i = 0; i < hostSystemList.size(); i++) {
+            assertEquals(Integer.valueOf(i + 1), hostSystemList.get(i).getInstanceId());
+        }
+        assertEquals("host1", hostSystemList.get(SYSTEM_COUNT).getHost());
+
+        //one statement for the session and one for all of its terminals
+        assertEquals(2, statementCount);
+    }
+
+    @Test
+    public void testGetSessions() {
+        SortedSet sortedSet = new SortedSet();
+        sortedSet.setOrderByDirection("asc");
+        sortedSet = SessionAuditDB.getSessions(countingConnection(), sortedSet);
+
+        List<SessionAudit> sessionList = sortedSet.getItemList();
+        assertEquals(3, sessionList.size());
+        assertEquals(Long.valueOf(100), sessionList.get(0).getId());
+        assertEquals(Long.valueOf(2), sessionList.get(0).getUser().getId());
+        assertEquals(Long.valueOf(101), sessionList.get(1).getId());
+        assertEquals(Long.valueOf(3), sessionList.get(1).getUser().getId());
+        assertEquals(1, statementCount);
+    }
+
+    @Test
+    public void testGetAllSystemStatus() {
+        List<HostSystem> hostSystemList = SystemStatusDB.getAllSystemStatus(countingConnection(), 1L);
+
+        assertEquals(SYSTEM_COUNT, hostSystemList.size());
+        for (int i = 0; i < hostSystemList.size(); i++) {
+            HostSystem hostSystem = hostSystemList.get(i);
+            assertEquals(Long.valueOf(i + 1), hostSystem.getId());
+            assertEquals("host" + (i + 1), hostSystem.getHost());
+            assertEquals((i + 1) % 2 == 0 ? HostSystem.SUCCESS_STATUS : HostSystem.INITIAL_STATUS, hostSystem.getStatusCd());
+        }
+        assertEquals(1, statementCount);
+    }
+
+    @Test
+    public void testGetSystemStatus() {
+        HostSystem hostSystem = SystemStatusDB.getSystemStatus(countingConnection(), 2L, 1L);
+
+        assertEquals(Long.valueOf(2), hostSystem.getId());
+        assertEquals("system2", hostSystem.getDisplayNm());
+        assertEquals(HostSystem.SUCCESS_STATUS, hostSystem.getStatusCd());
+
+        hostSystem = SystemStatusDB.getNextPendingSystem(countingConnection(), 1L);
+        assertEquals(Long.valueOf(1), hostSystem.getId());
+        assertEquals(HostSystem.INITIAL_STATUS, hostSystem.getStatusCd());
+
+        assertEquals(2, statementCount);
+    }
+
+    @Test
+    public void testGetTerminalLogPageInvalidCursor() {
+        TerminalLogPage firstPage = SessionAuditDB.getTerminalLogPage(con, 100L, 1, null);
+        assertEquals("ls", firstPage.getOutput());
+
+        for (String cursor : new String[]{"x", "0-1", "0-x-0", "7-0-0", "0-0-0-99", "1-0-0-0-0", "0-99999999999999999999-0"}) {
+            TerminalLogPage page = SessionAuditDB.getTerminalLogPage(con, 100L, 1, cursor);
+            assertNotNull(cursor, page);
+            assertEquals(cursor, firstPage.getOutput(), page.getOutput());
+        }
+    }
+
+    @Test
+    public void testDeleteAuditHistory() throws Exception {
+        Statement statement = con.createStatement();
+        statement.executeUpdate("update session_log set session_tm='2000-01-01 00:00:00' where id in (100, 101)");
+        //session 100 ran past the cutoff, its last terminal still has recent output
+        statement.executeUpdate("update terminal_log set log_tm='2000-01-01 00:00:00' where session_id=100 and instance_id < " + SYSTEM_COUNT);
+        statement.executeUpdate("update terminal_log_chunk set start_tm='2000-01-01 00:00:00', end_tm='2000-01-01 00:00:00'");
+
+        Timestamp cutoffTm = new Timestamp(System.currentTimeMillis() - 24 * 60 * 60 * 1000L);
+        AuditRetentionReport report = new AuditRetentionReport(cutoffTm);
+
+        //first batch is full, so no session is deleted and nothing cascades
+        assertEquals(3, SessionAuditDB.deleteAuditHistory(con, cutoffTm, 2, report));
+        assertEquals(0, report.getSessions());
+        assertEquals(3, count(statement, "select count(*) from terminal_log"));
+
+        while (SessionAuditDB.deleteAuditHistory(con, cutoffTm, 2, report) > 0) {
+            assertTrue(report.getBatches() < 10);
+        }
+        assertEquals(SYSTEM_COUNT - 1, report.getOutputRows());
+        assertEquals(1, report.getChunks());
+        assertEquals(1, report.getSessions());
+        assertEquals(1, count(statement, "select count(*) from terminal_log where session_id=100"));
+        assertEquals(2, count(statement, "select count(*) from session_log where id in (100, 102)"));
+        statement.close();
+    }
+
+    @Test
+    public void testGetTerminalReplayFromKeyframe() throws Exception {
+        long startTm = System.currentTimeMillis() - 60000;
+        TerminalLogChunk first = newChunk(startTm, "first\n");
+        TerminalLogChunk keyframe = newChunk(startTm + 1000, "ab\bc");
+        keyframe.setScreen("line1\nline2\n");
+        keyframe.append("\u001b[1mX", startTm + 2000);
+        assertTrue(SessionAuditDB.insertTerminalLogChunks(con, Arrays.asList(first, keyframe)));
+
+        //screen is the keyframe screen and its chunk up to the replay time, the chunk before is not read
+        TerminalReplay replay = SessionAuditDB.getTerminalReplay(con, 102L, 1, startTm + 1500, 1000);
+        assertEquals("line1\nline2\nac", replay.getScreen());
+        assertEquals(1, replay.getFrameList().size());
+        assertEquals(startTm + 2000, replay.getFrameList().get(0).getTm());
+        assertEquals("X", replay.getFrameList().get(0).getOutput());
+
+        //chunks logged before the screen was stored start from the chunk before
+        Statement statement = con.createStatement();
+        statement.executeUpdate("update terminal_log_chunk set screen=null, line_prefix='\n' where session_id=102");
+        statement.close();
+        replay = SessionAuditDB.getTerminalReplay(con, 102L, 1, startTm + 1500, 1000);
+        assertEquals("first\nac", replay.getScreen());
+    }
+
+    private static TerminalLogChunk newChunk(long startTm, String output) {
+        TerminalLogChunk chunk = new TerminalLogChunk();
+        chunk.setSessionId(102L);
+        chunk.setInstanceId(1);
+        chunk.setSystemId(1L);
+        chunk.setStartTm(startTm);
+        chunk.setEndTm(startTm);
+        chunk.append(output, startTm);
+        return chunk;
+    }
+
+    private static long count(Statement statement, String sql) throws Exception {
+        ResultSet rs = statement.executeQuery(sql);
+        rs.next();
+        long count = rs.getLong(1);
+        rs.close();
+        return count;
+    }
+}
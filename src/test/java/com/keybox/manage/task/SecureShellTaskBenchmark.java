@@ -0,0 +1,201 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.task;
+
+import com.keybox.manage.model.SessionOutput;
+import com.keybox.manage.util.OutputRingBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures keystroke echo latency and bulk output throughput of the shell task for different
+ * outputCoalesceSize and outputCoalesceWindow values, with the task reading a loopback socket
+ * in place of the ssh channel and the benchmark thread draining the output as the web socket
+ * task does.
+ * Run with mvn test -Pbenchmark -Dbenchmark=SecureShellTaskBenchmark
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecureShellTaskBenchmark {
+
+    //characters of bulk output read per operation
+    private static final int BULK_CHARS = 1 << 20;
+
+    private static final AtomicLong sessionIdSequence = new AtomicLong();
+
+    /**
+     * terminal with a host sending a keystroke echo for each operation
+     */
+    @State(Scope.Thread)
+    public static class EchoState {
+
+        @Param({"1024", "8192", "65536"})
+        int coalesceSize;
+
+        @Param({"0", "10", "50"})
+        long coalesceWindow;
+
+        Terminal terminal;
+
+        @Setup
+        public void setUp() throws Exception {
+            terminal = new Terminal(coalesceSize, coalesceWindow);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            terminal.close();
+        }
+    }
+
+    /**
+     * terminal with a host sending output as fast as it is read, like cat of a large log
+     */
+    @State(Scope.Thread)
+    public static class BulkState {
+
+        @Param({"1024", "8192", "65536"})
+        int coalesceSize;
+
+        @Param({"0", "10", "50"})
+        long coalesceWindow;
+
+        Terminal terminal;
+        Thread hostThread;
+
+        @Setup
+        public void setUp() throws Exception {
+            terminal = new Terminal(coalesceSize, coalesceWindow);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; sb.length() < 65536; i++) {
+                sb.append("Jan  1 00:00:00 host systemd[1]: Started Session ").append(i).append(" of user root.\r\n");
+            }
+            final byte[] block = sb.toString().getBytes(StandardCharsets.UTF_8);
+            final OutputStream hostOut = terminal.hostOut;
+            hostThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.currentThread().isInterrupted()) {
+                            hostOut.write(block);
+                        }
+                    } catch (IOException ex) {
+                        //closed after the trial
+                    }
+                }
+            });
+            hostThread.start();
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            hostThread.interrupt();
+            terminal.close();
+            hostThread.join();
+        }
+    }
+
+    /**
+     * shell task reading the channel end of a loopback connection into its session output
+     */
+    static class Terminal {
+
+        Socket hostSocket;
+        Socket channelSocket;
+        OutputStream hostOut;
+        Thread taskThread;
+        OutputRingBuffer outputBuffer;
+        StringBuilder output = new StringBuilder();
+
+        Terminal(int coalesceSize, long coalesceWindow) throws Exception {
+            ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            channelSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+            hostSocket = serverSocket.accept();
+            serverSocket.close();
+            hostSocket.setTcpNoDelay(true);
+            hostOut = hostSocket.getOutputStream();
+
+            SessionOutput sessionOutput = new SessionOutput();
+            sessionOutput.setSessionId(sessionIdSequence.incrementAndGet());
+            sessionOutput.setInstanceId(1);
+            taskThread = new Thread(new SecureShellTask(sessionOutput, channelSocket.getInputStream(), coalesceSize, coalesceWindow));
+            taskThread.start();
+            //output buffer is created when the task starts
+            while (sessionOutput.getOutputBuffer() == null) {
+                Thread.sleep(1);
+            }
+            outputBuffer = sessionOutput.getOutputBuffer();
+        }
+
+        /**
+         * drains the session output until the given number of characters have been read
+         *
+         * @param count number of characters
+         */
+        void read(int count) {
+            while (count > 0) {
+                output.setLength(0);
+                int drained = outputBuffer.drainTo(output);
+                if (drained == 0) {
+                    Thread.yield();
+                }
+                count = count - drained;
+            }
+        }
+
+        void close() throws Exception {
+            outputBuffer.close();
+            hostSocket.close();
+            taskThread.join();
+            channelSocket.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void echo(EchoState state) throws IOException {
+        state.terminal.hostOut.write('x');
+        state.terminal.read(1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void bulk(BulkState state) {
+        state.terminal.read(BULK_CHARS);
+    }
+}
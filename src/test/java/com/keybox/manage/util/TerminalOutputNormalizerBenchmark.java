@@ -0,0 +1,118 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the normalizer with the regex cleanups it replaced on a page of terminal output
+ * with prompts, window titles, colored listings and typing corrections.
+ * Run with mvn test -Pbenchmark -Dbenchmark=TerminalOutputNormalizerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerminalOutputNormalizerBenchmark {
+
+    //sequences removed by the regex cleanups
+    private static final Pattern CONTROL_SEQUENCE_PATTERN = Pattern.compile("\\u0007|\u001B\\[K|\\]0;|\\[\\d\\d;\\d\\dm|\\[\\dm");
+
+    //default playback page size
+    @Param({"262144"})
+    int pageSize;
+
+    String page;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder(pageSize + 1024);
+        for (int i = 0; sb.length() < pageSize; i++) {
+            sb.append("\u001B]0;root@host: /var/log\u0007root@host:/var/log# ls -l\r\n");
+            for (int f = 0; f < 10; f++) {
+                sb.append("drwxr-xr-x 2 root root 4096 Jan  1 00:00 \u001B[01;34mdir").append(i).append('-').append(f).append("\u001B[0m\r\n");
+            }
+            sb.append("root@host:/var/log# tial\b\b\bail -n 20 syslog\u001B[K\r\n");
+            for (int l = 0; l < 20; l++) {
+                sb.append("Jan  1 00:00:").append(l).append(" host systemd[1]: Started Session ").append(i).append(" of user root.\r\n");
+            }
+        }
+        page = sb.toString();
+    }
+
+    @Benchmark
+    public String replaceFirstCleanup() {
+        String output = CONTROL_SEQUENCE_PATTERN.matcher(page).replaceAll("");
+        while (output.contains("\b")) {
+            output = output.replaceFirst(".\b", "");
+        }
+        return output;
+    }
+
+    @Benchmark
+    public String regexCleanup() {
+        return cleanOutput(page);
+    }
+
+    @Benchmark
+    public String normalizer() {
+        return TerminalOutputNormalizer.normalizeAll(page);
+    }
+
+    /**
+     * removes terminal control sequences and applies backspaces in one pass as playback pages did
+     * before the normalizer
+     *
+     * @param output terminal output
+     * @return cleaned output
+     */
+    private static String cleanOutput(CharSequence output) {
+
+        String text = CONTROL_SEQUENCE_PATTERN.matcher(output).replaceAll("");
+
+        StringBuilder cleaned = new StringBuilder(text.length());
+        int leadingBackspaces = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\b') {
+                if (cleaned.length() > 0) {
+                    cleaned.setLength(cleaned.length() - 1);
+                } else {
+                    leadingBackspaces++;
+                }
+            } else {
+                cleaned.append(c);
+            }
+        }
+        return StringUtils.repeat('\b', leadingBackspaces) + cleaned;
+    }
+}
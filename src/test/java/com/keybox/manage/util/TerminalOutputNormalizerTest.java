@@ -0,0 +1,118 @@
+/**
+ * Copyright 2017 Sean Kavanagh - sean.p.kavanagh6@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.keybox.manage.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks escape sequence removal, backspaces and the state kept between calls
+ */
+public class TerminalOutputNormalizerTest {
+
+    @Test
+    public void testCsi() {
+        assertEquals("drwxr-xr-x dir", TerminalOutputNormalizer.normalizeAll("drwxr-xr-x \u001B[01;34mdir\u001B[0m"));
+        assertEquals("ab", TerminalOutputNormalizer.normalizeAll("a\u001B[2J\u001B[?1049hb\u001B[K"));
+        //ESC inside a sequence starts a new one
+        assertEquals("ab", TerminalOutputNormalizer.normalizeAll("a\u001B[1\u001B[0mb"));
+    }
+
+    @Test
+    public void testOsc() {
+        assertEquals("$ ls", TerminalOutputNormalizer.normalizeAll("\u001B]0;root@host: ~\u0007$ ls"));
+        //strings ended by ST as ESC \
+        assertEquals("$ ls", TerminalOutputNormalizer.normalizeAll("\u001B]0;root@host: ~\u001B\\$ ls"));
+        //DCS, SOS, PM and APC strings are removed the same way
+        assertEquals("abcde", TerminalOutputNormalizer.normalizeAll("a\u001BPq#0\u001B\\b\u001BXsos\u0007c\u001B^pm\u0007d\u001B_apc\u0007e"));
+        //ESC in a string that is not ST ends the string and starts a new sequence
+        assertEquals("xy", TerminalOutputNormalizer.normalizeAll("x\u001B]0;title\u001B[1my"));
+    }
+
+    @Test
+    public void testC1() {
+        assertEquals("ab", TerminalOutputNormalizer.normalizeAll("a\u009B1;31mb"));
+        assertEquals("ab", TerminalOutputNormalizer.normalizeAll("a\u009D0;title\u009Cb"));
+        //other C1 controls are dropped from text
+        assertEquals("ab", TerminalOutputNormalizer.normalizeAll("a\u0085\u009Cb"));
+    }
+
+    @Test
+    public void testOtherEscapes() {
+        assertEquals("ab", TerminalOutputNormalizer.normalizeAll("a\u001B(Bb"));
+        assertEquals("ab", TerminalOutputNormalizer.normalizeAll("a\u001B=\u001B>b"));
+        assertEquals("ab", TerminalOutputNormalizer.normalizeAll("a\u001B#8b"));
+        //tabs and line breaks are kept, other controls are dropped
+        assertEquals("a\tb\r\nc", TerminalOutputNormalizer.normalizeAll("a\u0007\tb\u0000\r\n\u007Fc"));
+    }
+
+    @Test
+    public void testBackspace() {
+        assertEquals("ad", TerminalOutputNormalizer.normalizeAll("abc\b\bd"));
+        //backspaces at the start of a line do not remove the line break
+        assertEquals("ab\nc", TerminalOutputNormalizer.normalizeAll("ab\n\b\bc"));
+        assertEquals("ab\rc", TerminalOutputNormalizer.normalizeAll("ab\r\bc"));
+        //backspaces at the start of the output are kept for the output before it
+        assertEquals("\b\bx", TerminalOutputNormalizer.normalizeAll("\b\bx"));
+        assertEquals("\b", TerminalOutputNormalizer.normalizeAll("a\b\b"));
+    }
+
+    @Test
+    public void testStateAcrossCalls() {
+        TerminalOutputNormalizer normalizer = new TerminalOutputNormalizer();
+        StringBuilder out = new StringBuilder();
+
+        normalizer.normalize("a\u001B[01;3", out);
+        assertEquals(TerminalOutputNormalizer.STATE_CSI, normalizer.getState());
+        normalizer.normalize("4mb\u001B", out);
+        assertEquals(TerminalOutputNormalizer.STATE_ESCAPE, normalizer.getState());
+        normalizer.normalize("]0;title\u001B", out);
+        assertEquals(TerminalOutputNormalizer.STATE_STRING_ESCAPE, normalizer.getState());
+
+        //state restored in a new normalizer as when reading the next page
+        normalizer = new TerminalOutputNormalizer(normalizer.getState());
+        normalizer.normalize("\\c\u001B(", out);
+        assertEquals(TerminalOutputNormalizer.STATE_ESCAPE_INTERMEDIATE, normalizer.getState());
+        normalizer.normalize("Bd\b", out);
+        normalizer.normalize("e", out);
+
+        assertEquals("abce", out.toString());
+        assertEquals(TerminalOutputNormalizer.STATE_TEXT, normalizer.getState());
+    }
+
+    @Test
+    public void testInvalidState() {
+        StringBuilder out = new StringBuilder();
+        new TerminalOutputNormalizer(99).normalize("ab", out);
+        new TerminalOutputNormalizer(-1).normalize("c", out);
+        assertEquals("abc", out.toString());
+    }
+
+    @Test
+    public void testRange() {
+        StringBuilder out = new StringBuilder();
+        new TerminalOutputNormalizer().normalize("xx\u001B[1mab\b\u001B[0myy", 2, 13, out);
+        assertEquals("a", out.toString());
+    }
+
+    @Test
+    public void testLastLines() {
+        assertEquals("c\nd", TerminalOutputNormalizer.lastLines(new StringBuilder("a\nb\nc\nd"), 1));
+        assertEquals("a\nb", TerminalOutputNormalizer.lastLines(new StringBuilder("\na\nb"), 5));
+        assertEquals("x", TerminalOutputNormalizer.lastLines(new StringBuilder("\n\b\bx"), 5));
+    }
+}